@@ -0,0 +1,120 @@
+package net.geofrenzy.android.cordova;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.geofrenzy.android.sdk.domain.agentstate.WatchedFence;
+import net.geofrenzy.android.sdk.domain.fences.Point;
+
+/**
+ * Building a {@link FenceIndex} when an agent's fences refresh, and the point queries Javascript makes
+ * against it.
+ *
+ * Queries cycle through a fixed set of points scattered over the fences' grid and a little beyond it,
+ * so some land in fences, some between them, and some outside all of them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class FenceIndexBenchmark {
+    private static final int QUERY_POINTS = 1024;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int fenceCount;
+
+    @Param({"16", "200"})
+    public int pointsPerFence;
+
+    private List<WatchedFence> fences;
+    private FenceIndex.Geometry[] geometries;
+    private FenceIndex index;
+    private double[] queryLatitudes;
+    private double[] queryLongitudes;
+    private int nextQuery;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        fences = SyntheticGeodomain.generate(fenceCount, pointsPerFence).newState.getFences();
+        geometries = new FenceIndex.Geometry[fences.size()];
+        double minLongitude = Double.MAX_VALUE;
+        double minLatitude = Double.MAX_VALUE;
+        double maxLongitude = -Double.MAX_VALUE;
+        double maxLatitude = -Double.MAX_VALUE;
+        for(int i = 0; i < fences.size(); i++) {
+            geometries[i] = new FenceIndex.Geometry(coordinatesOf(fences.get(i)));
+            Point anchorPoint = fences.get(i).getFence().getAnchorPoint();
+            minLongitude = Math.min(minLongitude, anchorPoint.getLongitude());
+            minLatitude = Math.min(minLatitude, anchorPoint.getLatitude());
+            maxLongitude = Math.max(maxLongitude, anchorPoint.getLongitude());
+            maxLatitude = Math.max(maxLatitude, anchorPoint.getLatitude());
+        }
+        index = build();
+
+        Random random = new Random(7);
+        double margin = 0.01;
+        queryLatitudes = new double[QUERY_POINTS];
+        queryLongitudes = new double[QUERY_POINTS];
+        for(int i = 0; i < QUERY_POINTS; i++) {
+            queryLatitudes[i] = minLatitude - margin + (maxLatitude - minLatitude + 2 * margin) * random.nextDouble();
+            queryLongitudes[i] = minLongitude - margin + (maxLongitude - minLongitude + 2 * margin) * random.nextDouble();
+        }
+    }
+
+    /**
+     * Geometries are reused as they are when an agent rebuilds its index, so only packing is measured.
+     */
+    @Benchmark
+    public FenceIndex build() {
+        FenceIndex.Builder builder = new FenceIndex.Builder();
+        for(int i = 0; i < fences.size(); i++) {
+            WatchedFence fence = fences.get(i);
+            Point anchorPoint = fence.getFence().getAnchorPoint();
+            builder.add("fence" + i, fence.getStatus().name(), anchorPoint.getLongitude(), anchorPoint.getLatitude(), geometries[i]);
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public List<FenceIndex.Match> queryContains() {
+        int query = nextQuery();
+        return index.queryContains(queryLatitudes[query], queryLongitudes[query]);
+    }
+
+    @Benchmark
+    public List<FenceIndex.Match> queryWithinRadius() {
+        int query = nextQuery();
+        return index.queryWithinRadius(queryLatitudes[query], queryLongitudes[query], 500);
+    }
+
+    @Benchmark
+    public List<FenceIndex.Match> nearestFences() {
+        int query = nextQuery();
+        return index.nearestFences(queryLatitudes[query], queryLongitudes[query], 5);
+    }
+
+    private static double[] coordinatesOf(WatchedFence fence) {
+        List<Point> points = fence.getFence().getPoints();
+        double[] coordinates = new double[2 * points.size()];
+        for(int i = 0; i < points.size(); i++) {
+            coordinates[2 * i] = points.get(i).getLongitude();
+            coordinates[2 * i + 1] = points.get(i).getLatitude();
+        }
+        return coordinates;
+    }
+
+    private int nextQuery() {
+        nextQuery = (nextQuery + 1) % QUERY_POINTS;
+        return nextQuery;
+    }
+}
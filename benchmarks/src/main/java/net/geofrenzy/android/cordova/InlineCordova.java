@@ -0,0 +1,51 @@
+package net.geofrenzy.android.cordova;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import android.app.Activity;
+
+import org.apache.cordova.CordovaInterface;
+
+/**
+ * Hosts the plugin on the benchmark's own thread: everything it hands Cordova's thread pool runs
+ * right away, so a delegate callback has serialized and sent its message by the time it returns.
+ */
+final class InlineCordova implements CordovaInterface {
+    private final Activity activity = new Activity();
+    private final ExecutorService threadPool = new AbstractExecutorService() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        public void shutdown() {
+        }
+
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        public boolean isShutdown() {
+            return false;
+        }
+
+        public boolean isTerminated() {
+            return false;
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    };
+
+    public Activity getActivity() {
+        return activity;
+    }
+
+    public ExecutorService getThreadPool() {
+        return threadPool;
+    }
+}
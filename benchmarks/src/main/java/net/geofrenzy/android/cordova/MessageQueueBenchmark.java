@@ -0,0 +1,89 @@
+package net.geofrenzy.android.cordova;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A delegate's enqueue and drain path: a burst of messages arrives while Javascript isn't listening,
+ * then the queue is drained, as happens when the WebView comes back or Javascript resubscribes.
+ *
+ * Bursts are mostly refreshes with the occasional exception mixed in, so that coalescing has runs to
+ * merge and dropping has something it mustn't drop.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class MessageQueueBenchmark {
+    /**
+     * Stands in for the delegate's `PendingMessage`: absorbing a refresh takes its new state, and
+     * a message remembers when it was handed off.
+     */
+    static final class StandInMessage implements MessageQueue.Message<StandInMessage> {
+        final boolean refresh;
+        final long handedOffAt = System.nanoTime();
+        Object state;
+
+        StandInMessage(boolean refresh, Object state) {
+            this.refresh = refresh;
+            this.state = state;
+        }
+
+        public boolean isRefresh() {
+            return refresh;
+        }
+
+        public void absorb(StandInMessage laterRefresh) {
+            this.state = laterRefresh.state;
+        }
+    }
+
+    @Param({"true", "false"})
+    public boolean coalesce;
+
+    @Param({"16", "256"})
+    public int maxQueuedMessages;
+
+    @Param({"10", "1000"})
+    public int burstSize;
+
+    private final Object state = new Object();
+
+    /**
+     * Messages that came out of the drain, so the work can't be optimized away.
+     */
+    @Benchmark
+    public int burstThenDrain() {
+        MessageQueue<StandInMessage> queue = new MessageQueue<StandInMessage>(maxQueuedMessages, coalesce);
+        for(int i = 0; i < burstSize; i++) {
+            queue.add(new StandInMessage(i % 50 != 49, state));
+        }
+        int drained = 0;
+        while(queue.poll() != null) {
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * A listening delegate: every message is drained as soon as it's queued.
+     */
+    @Benchmark
+    public int addThenPoll() {
+        MessageQueue<StandInMessage> queue = new MessageQueue<StandInMessage>(maxQueuedMessages, coalesce);
+        int drained = 0;
+        for(int i = 0; i < burstSize; i++) {
+            queue.add(new StandInMessage(true, state));
+            if(queue.poll() != null) {
+                drained++;
+            }
+        }
+        return drained;
+    }
+}
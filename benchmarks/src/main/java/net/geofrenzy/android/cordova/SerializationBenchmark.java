@@ -0,0 +1,174 @@
+package net.geofrenzy.android.cordova;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaArgs;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.geofrenzy.android.sdk.agent.FencingAgent;
+import net.geofrenzy.android.sdk.agent.delegate.FencingAgentDelegate;
+import net.geofrenzy.android.sdk.domain.agentstate.AgentState;
+import net.geofrenzy.android.sdk.domain.agentstate.AgentStateUpdate;
+
+/**
+ * A delegate's whole path from an SDK callback to Javascript's callback: queueing the message, writing
+ * it, and handing the batch to a subscribed `CallbackContext`. The plugin is the real one, created,
+ * started and subscribed to through `execute`, as Javascript does it; only Cordova and the SDK's agent
+ * are stand-ins, and Cordova runs the plugin's background work inline.
+ *
+ * - `start` sends every fence's points, as an agent's first start does. Starts alternate between two
+ *   copies of the geodomain whose fences differ only in TTL, so no geometry is ever cached.
+ * - `refresh` alternates between refreshing to the new state and back, so each refresh changes a tenth
+ *   of the fences. Geometries are cached after the first, as in a running agent.
+ *
+ * Fence count and points per fence are varied separately, so a run doesn't spend its time on ten
+ * thousand fences of two thousand points each, which no geodomain has.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SerializationBenchmark {
+    /**
+     * A subscribed agent, with the delegate options that change how messages are written.
+     */
+    @State(Scope.Thread)
+    public abstract static class Agent {
+        @Param({"false", "true"})
+        public boolean deltaUpdates;
+
+        @Param({"json", "float64"})
+        public String pointEncoding;
+
+        AgentState<Void>[] startStates;
+        AgentStateUpdate<Void>[] refreshUpdates;
+        FencingAgentDelegate<Void> delegate;
+        //The message most recently sent to Javascript.
+        String sent;
+        private int nextStart;
+        private int nextRefresh;
+
+        abstract SyntheticGeodomain generate(int fenceTtl);
+
+        @Setup(Level.Trial)
+        @SuppressWarnings("unchecked")
+        public void create() throws JSONException {
+            SyntheticGeodomain geodomain = generate(600);
+            startStates = new AgentState[]{geodomain.newState, generate(601).newState};
+            refreshUpdates = new AgentStateUpdate[]{
+                    new AgentStateUpdate<Void>(geodomain.oldState, geodomain.newState),
+                    new AgentStateUpdate<Void>(geodomain.newState, geodomain.oldState)
+            };
+
+            FencingAgentPlugin plugin = new FencingAgentPlugin();
+            plugin.initialize(new InlineCordova(), null);
+            CallbackContext failOnError = new CallbackContext() {
+                @Override
+                public void sendPluginResult(PluginResult pluginResult) {
+                    if(pluginResult.getStatus() == PluginResult.Status.ERROR.ordinal()) {
+                        throw new IllegalStateException(pluginResult.getMessage());
+                    }
+                }
+            };
+            plugin.execute("createAgent", new CordovaArgs(new JSONArray()
+                    .put(SyntheticGeodomain.GEODOMAIN).put(1000).put(16).put(true).put(false).put(0)
+                    .put(deltaUpdates).put(JSONObject.NULL).put("coalesce").put(pointEncoding).put(false).put(false)
+                    ), failOnError);
+            plugin.execute("start", new CordovaArgs(new JSONArray().put(SyntheticGeodomain.GEODOMAIN)), failOnError);
+            plugin.execute("subscribe", new CordovaArgs(new JSONArray().put(SyntheticGeodomain.GEODOMAIN)), new CallbackContext() {
+                @Override
+                public void sendPluginResult(PluginResult pluginResult) {
+                    sent = pluginResult.getMessage();
+                }
+            });
+            delegate = (FencingAgentDelegate<Void>) FencingAgent.forGeodomain(SyntheticGeodomain.GEODOMAIN).getDelegates().get(0);
+        }
+
+        AgentState<Void> nextStart() {
+            nextStart ^= 1;
+            return startStates[nextStart];
+        }
+
+        AgentStateUpdate<Void> nextRefresh() {
+            nextRefresh ^= 1;
+            return refreshUpdates[nextRefresh];
+        }
+    }
+
+    public static class ManyFences extends Agent {
+        @Param({"10", "100", "1000", "10000"})
+        public int fenceCount;
+
+        SyntheticGeodomain generate(int fenceTtl) {
+            return SyntheticGeodomain.generate(fenceCount, 16, fenceTtl);
+        }
+    }
+
+    public static class DetailedFences extends Agent {
+        @Param({"4", "100", "2000"})
+        public int pointsPerFence;
+
+        SyntheticGeodomain generate(int fenceTtl) {
+            return SyntheticGeodomain.generate(100, pointsPerFence, fenceTtl);
+        }
+    }
+
+    /**
+     * Reports the size of the last message sent, in characters, as `payloadChars`. Each benchmark
+     * runs on one thread, and alternates between messages of nearly the same size.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Payload {
+        public long payloadChars;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            payloadChars = 0;
+        }
+    }
+
+    @Benchmark
+    public String startByFenceCount(ManyFences agent, Payload payload) {
+        return start(agent, payload);
+    }
+
+    @Benchmark
+    public String refreshByFenceCount(ManyFences agent, Payload payload) {
+        return refresh(agent, payload);
+    }
+
+    @Benchmark
+    public String startByPointsPerFence(DetailedFences agent, Payload payload) {
+        return start(agent, payload);
+    }
+
+    @Benchmark
+    public String refreshByPointsPerFence(DetailedFences agent, Payload payload) {
+        return refresh(agent, payload);
+    }
+
+    private static String start(Agent agent, Payload payload) {
+        agent.delegate.onStarted(agent.nextStart());
+        payload.payloadChars = agent.sent.length();
+        return agent.sent;
+    }
+
+    private static String refresh(Agent agent, Payload payload) {
+        agent.delegate.fencesRefreshed(agent.nextRefresh());
+        payload.payloadChars = agent.sent.length();
+        return agent.sent;
+    }
+}
@@ -0,0 +1,63 @@
+package net.geofrenzy.android.cordova;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Simplifying one fence outline with {@link GeometrySimplifier}, as the plugin does the first time a
+ * fence is sent at a new zoom level.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class SimplifierBenchmark {
+    @Param({"4", "16", "100", "2000", "20000"})
+    public int pointCount;
+
+    //Zoom levels a map would show a city block at, down to a whole metro area.
+    @Param({"12", "15", "18"})
+    public int zoomLevel;
+
+    private double[] coordinates;
+    private double tolerance;
+
+    /**
+     * Reports how many points the last simplification kept, as `keptPoints`; each benchmark runs on one
+     * thread, so that is how many every simplification keeps.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Kept {
+        public long keptPoints;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            keptPoints = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void generate() {
+        coordinates = SyntheticGeodomain.ring(-115.1526, 36.1317, pointCount, new Random(42));
+        //The same tolerance `SimplifiedGeometryCache.toleranceForZoomLevel` gives.
+        tolerance = 360.0 / (256 * Math.pow(2, zoomLevel));
+    }
+
+    @Benchmark
+    public int[] simplify(Kept kept) {
+        int[] indices = GeometrySimplifier.simplify(coordinates, tolerance);
+        kept.keptPoints = indices.length;
+        return indices;
+    }
+}
@@ -0,0 +1,133 @@
+package net.geofrenzy.android.cordova;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import net.geofrenzy.android.commons.domain.Interval;
+import net.geofrenzy.android.commons.domain.Unit;
+import net.geofrenzy.android.sdk.domain.agentstate.AgentState;
+import net.geofrenzy.android.sdk.domain.agentstate.ApproachDetails;
+import net.geofrenzy.android.sdk.domain.agentstate.FenceStatus;
+import net.geofrenzy.android.sdk.domain.agentstate.WatchedFence;
+import net.geofrenzy.android.sdk.domain.agentstate.WatchedGeodomain;
+import net.geofrenzy.android.sdk.domain.fences.Fence;
+import net.geofrenzy.android.sdk.domain.fences.Point;
+import net.geofrenzy.android.sdk.domain.geodomains.Geodomain;
+import net.geofrenzy.android.sdk.domain.requirements.BooleanSetRequirement;
+import net.geofrenzy.android.sdk.domain.requirements.ColorRequirement;
+import net.geofrenzy.android.sdk.domain.requirements.IntervalRequirement;
+import net.geofrenzy.android.sdk.domain.requirements.ProfileRequirement;
+import net.geofrenzy.android.sdk.domain.requirements.Requirement;
+import net.geofrenzy.android.sdk.domain.requirements.ThresholdRequirement;
+
+/**
+ * Two agent states, built from the SDK's stand-in classes: a geodomain with one requirement of every type,
+ * and a grid of fences around the Las Vegas strip, each a jittered ring of points. Everything is generated
+ * from a fixed seed, so every run measures the same data.
+ */
+final class SyntheticGeodomain {
+    static final String GEODOMAIN = "smartcity.geofrenzy.geo";
+    private static final FenceStatus[] STATUSES = FenceStatus.values();
+    private static final double ORIGIN_LONGITUDE = -115.1526;
+    private static final double ORIGIN_LATITUDE = 36.1317;
+    private static final double FENCE_SPACING_DEGREES = 0.002;
+    private static final double FENCE_RADIUS_DEGREES = 0.0008;
+    private static final long RETRIEVAL_TIME = 1513720856194L;
+    private static final long REFRESH_INTERVAL_MILLIS = 30000;
+
+    final AgentState<Void> oldState;
+    //`oldState` a refresh later, with a tenth of its fences' statuses moved on, as a typical refresh has.
+    final AgentState<Void> newState;
+
+    private SyntheticGeodomain(AgentState<Void> oldState, AgentState<Void> newState) {
+        this.oldState = oldState;
+        this.newState = newState;
+    }
+
+    static SyntheticGeodomain generate(int fenceCount, int pointsPerFence) {
+        return generate(fenceCount, pointsPerFence, 600);
+    }
+
+    /**
+     * Fences generated with different `fenceTtl`s have the same points, but never share a geometry
+     * in a delegate's cache.
+     */
+    static SyntheticGeodomain generate(int fenceCount, int pointsPerFence, int fenceTtl) {
+        Random random = new Random(42);
+        Date oldRetrievalTime = new Date(RETRIEVAL_TIME);
+        Date newRetrievalTime = new Date(RETRIEVAL_TIME + REFRESH_INTERVAL_MILLIS);
+        int columns = (int) Math.ceil(Math.sqrt(fenceCount));
+        List<WatchedFence> oldFences = new ArrayList<WatchedFence>(fenceCount);
+        List<WatchedFence> newFences = new ArrayList<WatchedFence>(fenceCount);
+        for(int i = 0; i < fenceCount; i++) {
+            double anchorLongitude = ORIGIN_LONGITUDE + FENCE_SPACING_DEGREES * (i % columns);
+            double anchorLatitude = ORIGIN_LATITUDE + FENCE_SPACING_DEGREES * (i / columns);
+            Fence fence = new Fence(points(ring(anchorLongitude, anchorLatitude, pointsPerFence, random)),
+                    new Point(anchorLongitude, anchorLatitude), fenceTtl);
+            WatchedFence oldFence = new WatchedFence(fence, STATUSES[random.nextInt(STATUSES.length)], oldRetrievalTime,
+                    approachDetails(random));
+            oldFences.add(oldFence);
+            newFences.add(random.nextInt(10) == 0 ?
+                    new WatchedFence(fence, STATUSES[random.nextInt(STATUSES.length)], newRetrievalTime, approachDetails(random)) :
+                    oldFence);
+        }
+        Geodomain geodomain = geodomain();
+        return new SyntheticGeodomain(
+                new AgentState<Void>(oldFences, new WatchedGeodomain(geodomain, FenceStatus.AMBIENT, oldRetrievalTime)),
+                new AgentState<Void>(newFences, new WatchedGeodomain(geodomain, FenceStatus.ENTERED, newRetrievalTime))
+                );
+    }
+
+    /**
+     * A closed ring of `pointCount` points, the last repeating the first, as interleaved longitude/latitude
+     * pairs. Its radius is jittered so that simplification has something to keep.
+     */
+    static double[] ring(double centerLongitude, double centerLatitude, int pointCount, Random random) {
+        double[] coordinates = new double[2 * pointCount];
+        int distinctPoints = pointCount - 1;
+        for(int i = 0; i < distinctPoints; i++) {
+            double angle = 2 * Math.PI * i / distinctPoints;
+            double radius = FENCE_RADIUS_DEGREES * (1 + 0.2 * (random.nextDouble() - 0.5));
+            coordinates[2 * i] = centerLongitude + radius * Math.cos(angle);
+            coordinates[2 * i + 1] = centerLatitude + radius * Math.sin(angle);
+        }
+        coordinates[2 * distinctPoints] = coordinates[0];
+        coordinates[2 * distinctPoints + 1] = coordinates[1];
+        return coordinates;
+    }
+
+    private static List<Point> points(double[] coordinates) {
+        List<Point> points = new ArrayList<Point>(coordinates.length / 2);
+        for(int i = 0; i < coordinates.length; i += 2) {
+            points.add(new Point(coordinates[i], coordinates[i + 1]));
+        }
+        return points;
+    }
+
+    private static ApproachDetails approachDetails(Random random) {
+        return new ApproachDetails(random.nextBoolean(), 360 * random.nextDouble(), 360 * random.nextDouble());
+    }
+
+    /**
+     * One requirement of every type the plugin sends.
+     */
+    private static Geodomain geodomain() {
+        int everyThirdBit = 0;
+        for(int bit = 0; bit < 16; bit += 3) {
+            everyThirdBit |= 1 << bit;
+        }
+        List<Requirement> requirements = Arrays.<Requirement>asList(
+                new ColorRequirement(255, 128, 0, 255),
+                new BooleanSetRequirement(everyThirdBit),
+                new ThresholdRequirement(0, 25, Unit.MILES_PER_HOUR),
+                new IntervalRequirement(new Interval(new TreeSet<Double>(Arrays.asList(100.0, 250.0, 600.0)), false, 0, 1000),
+                        Unit.METERS),
+                new ProfileRequirement("commercial")
+                );
+        return new Geodomain(requirements, 600, GEODOMAIN, "8f6f0f5e-0c4e-4b6e-9d7a-4a3c2f2f0b11");
+    }
+}
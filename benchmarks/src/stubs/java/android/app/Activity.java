@@ -0,0 +1,12 @@
+package android.app;
+
+import android.content.Context;
+
+/**
+ * Stands in for Android's `Activity`. There's no UI thread, so work posted to it runs right away.
+ */
+public class Activity extends Context {
+    public final void runOnUiThread(Runnable action) {
+        action.run();
+    }
+}
@@ -0,0 +1,18 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * Stands in for Android's `Context`: files go under the JVM's temporary directory.
+ */
+public class Context {
+    private static final File FILES_DIR = new File(System.getProperty("java.io.tmpdir"), "fencing-agent-benchmarks");
+
+    public File getFilesDir() {
+        return FILES_DIR;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+}
@@ -0,0 +1,14 @@
+package android.util;
+
+/**
+ * Stands in for Android's `Base64`, for the encoding the plugin uses.
+ */
+public class Base64 {
+    public static final int NO_WRAP = 2;
+
+    public static String encodeToString(byte[] input, int offset, int length, int flags) {
+        byte[] slice = new byte[length];
+        System.arraycopy(input, offset, slice, 0, length);
+        return java.util.Base64.getEncoder().encodeToString(slice);
+    }
+}
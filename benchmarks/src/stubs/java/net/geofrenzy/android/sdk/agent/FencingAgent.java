@@ -0,0 +1,60 @@
+package net.geofrenzy.android.sdk.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.geofrenzy.android.sdk.agent.delegate.FencingAgentDelegate;
+import net.geofrenzy.android.sdk.agent.profile.FencingAgentProfile;
+import net.geofrenzy.android.sdk.domain.geodomains.Geodomain;
+
+/**
+ * Stands in for the SDK's `FencingAgent`. It never fetches anything; benchmarks find it with
+ * {@link #forGeodomain} and call its delegates with the states they want serialized.
+ */
+public class FencingAgent<T> {
+    private static final ConcurrentHashMap<String, FencingAgent<?>> AGENTS = new ConcurrentHashMap<String, FencingAgent<?>>();
+
+    private final List<FencingAgentDelegate<T>> delegates = new ArrayList<FencingAgentDelegate<T>>();
+    private volatile boolean running = false;
+
+    public FencingAgent(FencingAgentProfile profile, Class<T> type) {
+        AGENTS.put(profile.getGeodomain(), this);
+    }
+
+    /**
+     * The agent most recently built for `geodomain`, or `null`.
+     */
+    public static FencingAgent<?> forGeodomain(String geodomain) {
+        return AGENTS.get(geodomain);
+    }
+
+    public List<FencingAgentDelegate<T>> getDelegates() {
+        return delegates;
+    }
+
+    public void addDelegate(FencingAgentDelegate<T> delegate) {
+        if(!delegates.contains(delegate)) {
+            delegates.add(delegate);
+        }
+    }
+
+    public void start() {
+        running = true;
+    }
+
+    public void quit() {
+        running = false;
+    }
+
+    public void purgeCache() {
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public Geodomain getRawGeodomain() {
+        return null;
+    }
+}
@@ -0,0 +1,14 @@
+package net.geofrenzy.android.sdk.agent.delegate;
+
+import net.geofrenzy.android.sdk.domain.agentstate.AgentState;
+import net.geofrenzy.android.sdk.domain.agentstate.AgentStateUpdate;
+
+public interface FencingAgentDelegate<T> {
+    void handleException(RuntimeException exception, AgentState<T> stateBeforeException);
+
+    void fencesRefreshed(AgentStateUpdate<T> agentStateUpdate);
+
+    void onStarted(AgentState<T> initialState);
+
+    void onQuit(AgentState<T> finalState);
+}
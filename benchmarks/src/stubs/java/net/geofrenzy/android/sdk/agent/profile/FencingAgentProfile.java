@@ -0,0 +1,55 @@
+package net.geofrenzy.android.sdk.agent.profile;
+
+import android.content.Context;
+
+/**
+ * Stands in for the SDK's `FencingAgentProfile`; only the geodomain is kept.
+ */
+public class FencingAgentProfile {
+    private final String geodomain;
+
+    private FencingAgentProfile(String geodomain) {
+        this.geodomain = geodomain;
+    }
+
+    public String getGeodomain() {
+        return geodomain;
+    }
+
+    public static class Builder {
+        private String geodomain;
+
+        public Builder setGeodomain(String geodomain) {
+            this.geodomain = geodomain;
+            return this;
+        }
+
+        public Builder setRange(int range) {
+            return this;
+        }
+
+        public Builder setZoomLevel(int zoomLevel) {
+            return this;
+        }
+
+        public Builder setEmitApproachEvents(boolean emitApproachEvents) {
+            return this;
+        }
+
+        public Builder setInsideFocus(boolean insideFocus) {
+            return this;
+        }
+
+        public Builder setDwellTime(long dwellTime) {
+            return this;
+        }
+
+        public Builder setContext(Context context) {
+            return this;
+        }
+
+        public FencingAgentProfile createAgentProfile() {
+            return new FencingAgentProfile(geodomain);
+        }
+    }
+}
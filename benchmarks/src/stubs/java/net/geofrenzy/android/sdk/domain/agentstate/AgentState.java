@@ -0,0 +1,21 @@
+package net.geofrenzy.android.sdk.domain.agentstate;
+
+import java.util.List;
+
+public class AgentState<T> {
+    private final List<WatchedFence> fences;
+    private final WatchedGeodomain geodomain;
+
+    public AgentState(List<WatchedFence> fences, WatchedGeodomain geodomain) {
+        this.fences = fences;
+        this.geodomain = geodomain;
+    }
+
+    public List<WatchedFence> getFences() {
+        return fences;
+    }
+
+    public WatchedGeodomain getGeodomain() {
+        return geodomain;
+    }
+}
@@ -0,0 +1,19 @@
+package net.geofrenzy.android.sdk.domain.agentstate;
+
+public class AgentStateUpdate<T> {
+    private final AgentState<T> oldSnapshot;
+    private final AgentState<T> newSnapshot;
+
+    public AgentStateUpdate(AgentState<T> oldSnapshot, AgentState<T> newSnapshot) {
+        this.oldSnapshot = oldSnapshot;
+        this.newSnapshot = newSnapshot;
+    }
+
+    public AgentState<T> getOldSnapshot() {
+        return oldSnapshot;
+    }
+
+    public AgentState<T> getNewSnapshot() {
+        return newSnapshot;
+    }
+}
@@ -0,0 +1,25 @@
+package net.geofrenzy.android.sdk.domain.agentstate;
+
+public class ApproachDetails {
+    private final boolean approaching;
+    private final double reciprocalBearing;
+    private final double evasiveBearing;
+
+    public ApproachDetails(boolean approaching, double reciprocalBearing, double evasiveBearing) {
+        this.approaching = approaching;
+        this.reciprocalBearing = reciprocalBearing;
+        this.evasiveBearing = evasiveBearing;
+    }
+
+    public boolean isApproaching() {
+        return approaching;
+    }
+
+    public double getReciprocalBearing() {
+        return reciprocalBearing;
+    }
+
+    public double getEvasiveBearing() {
+        return evasiveBearing;
+    }
+}
@@ -0,0 +1,8 @@
+package net.geofrenzy.android.sdk.domain.agentstate;
+
+public enum FenceStatus {
+    AMBIENT,
+    ENTERED,
+    DWELLING,
+    EXITED
+}
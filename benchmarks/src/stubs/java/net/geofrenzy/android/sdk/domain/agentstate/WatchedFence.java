@@ -0,0 +1,35 @@
+package net.geofrenzy.android.sdk.domain.agentstate;
+
+import java.util.Date;
+
+import net.geofrenzy.android.sdk.domain.fences.Fence;
+
+public class WatchedFence {
+    private final Fence fence;
+    private final FenceStatus status;
+    private final Date retrievalTime;
+    private final ApproachDetails approachDetails;
+
+    public WatchedFence(Fence fence, FenceStatus status, Date retrievalTime, ApproachDetails approachDetails) {
+        this.fence = fence;
+        this.status = status;
+        this.retrievalTime = retrievalTime;
+        this.approachDetails = approachDetails;
+    }
+
+    public Fence getFence() {
+        return fence;
+    }
+
+    public FenceStatus getStatus() {
+        return status;
+    }
+
+    public Date getRetrievalTime() {
+        return retrievalTime;
+    }
+
+    public ApproachDetails getApproachDetails() {
+        return approachDetails;
+    }
+}
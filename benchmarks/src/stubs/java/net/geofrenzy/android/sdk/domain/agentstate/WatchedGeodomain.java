@@ -0,0 +1,29 @@
+package net.geofrenzy.android.sdk.domain.agentstate;
+
+import java.util.Date;
+
+import net.geofrenzy.android.sdk.domain.geodomains.Geodomain;
+
+public class WatchedGeodomain {
+    private final Geodomain geodomain;
+    private final FenceStatus geodomainStatus;
+    private final Date retrievalTime;
+
+    public WatchedGeodomain(Geodomain geodomain, FenceStatus geodomainStatus, Date retrievalTime) {
+        this.geodomain = geodomain;
+        this.geodomainStatus = geodomainStatus;
+        this.retrievalTime = retrievalTime;
+    }
+
+    public FenceStatus getGeodomainStatus() {
+        return geodomainStatus;
+    }
+
+    public Date getRetrievalTime() {
+        return retrievalTime;
+    }
+
+    public Geodomain raw() {
+        return geodomain;
+    }
+}
@@ -0,0 +1,27 @@
+package net.geofrenzy.android.sdk.domain.fences;
+
+import java.util.List;
+
+public class Fence {
+    private final List<Point> points;
+    private final Point anchorPoint;
+    private final int ttl;
+
+    public Fence(List<Point> points, Point anchorPoint, int ttl) {
+        this.points = points;
+        this.anchorPoint = anchorPoint;
+        this.ttl = ttl;
+    }
+
+    public List<Point> getPoints() {
+        return points;
+    }
+
+    public Point getAnchorPoint() {
+        return anchorPoint;
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+}
@@ -0,0 +1,19 @@
+package net.geofrenzy.android.sdk.domain.fences;
+
+public class Point {
+    private final double longitude;
+    private final double latitude;
+
+    public Point(double longitude, double latitude) {
+        this.longitude = longitude;
+        this.latitude = latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+}
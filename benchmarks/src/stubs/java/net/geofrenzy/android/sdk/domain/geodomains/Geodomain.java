@@ -0,0 +1,35 @@
+package net.geofrenzy.android.sdk.domain.geodomains;
+
+import java.util.List;
+
+import net.geofrenzy.android.sdk.domain.requirements.Requirement;
+
+public class Geodomain {
+    private final List<Requirement> requirements;
+    private final int ttl;
+    private final String domainName;
+    private final String identifier;
+
+    public Geodomain(List<Requirement> requirements, int ttl, String domainName, String identifier) {
+        this.requirements = requirements;
+        this.ttl = ttl;
+        this.domainName = domainName;
+        this.identifier = identifier;
+    }
+
+    public List<Requirement> getRequirements() {
+        return requirements;
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+
+    public String getDomainName() {
+        return domainName;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+}
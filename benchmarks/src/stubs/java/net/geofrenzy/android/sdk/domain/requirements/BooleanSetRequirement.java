@@ -0,0 +1,77 @@
+package net.geofrenzy.android.sdk.domain.requirements;
+
+import net.geofrenzy.android.sdk.domain.requirements.domain.RequirementBaseType;
+
+public class BooleanSetRequirement extends Requirement {
+    //Bit 0 is the lowest.
+    private final int bits;
+
+    public BooleanSetRequirement(int bits) {
+        super(RequirementBaseType.BOOLEANSET);
+        this.bits = bits;
+    }
+
+    public boolean isBit0() {
+        return (bits & (1 << 0)) != 0;
+    }
+
+    public boolean isBit1() {
+        return (bits & (1 << 1)) != 0;
+    }
+
+    public boolean isBit2() {
+        return (bits & (1 << 2)) != 0;
+    }
+
+    public boolean isBit3() {
+        return (bits & (1 << 3)) != 0;
+    }
+
+    public boolean isBit4() {
+        return (bits & (1 << 4)) != 0;
+    }
+
+    public boolean isBit5() {
+        return (bits & (1 << 5)) != 0;
+    }
+
+    public boolean isBit6() {
+        return (bits & (1 << 6)) != 0;
+    }
+
+    public boolean isBit7() {
+        return (bits & (1 << 7)) != 0;
+    }
+
+    public boolean isBit8() {
+        return (bits & (1 << 8)) != 0;
+    }
+
+    public boolean isBit9() {
+        return (bits & (1 << 9)) != 0;
+    }
+
+    public boolean isBit10() {
+        return (bits & (1 << 10)) != 0;
+    }
+
+    public boolean isBit11() {
+        return (bits & (1 << 11)) != 0;
+    }
+
+    public boolean isBit12() {
+        return (bits & (1 << 12)) != 0;
+    }
+
+    public boolean isBit13() {
+        return (bits & (1 << 13)) != 0;
+    }
+
+    public boolean isBit14() {
+        return (bits & (1 << 14)) != 0;
+    }
+
+    public boolean isBit15() {
+        return (bits & (1 << 15)) != 0;
+    }
+}
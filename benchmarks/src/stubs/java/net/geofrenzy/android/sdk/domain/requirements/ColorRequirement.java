@@ -0,0 +1,34 @@
+package net.geofrenzy.android.sdk.domain.requirements;
+
+import net.geofrenzy.android.sdk.domain.requirements.domain.RequirementBaseType;
+
+public class ColorRequirement extends Requirement {
+    private final int red;
+    private final int green;
+    private final int blue;
+    private final int alpha;
+
+    public ColorRequirement(int red, int green, int blue, int alpha) {
+        super(RequirementBaseType.COLOR);
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+        this.alpha = alpha;
+    }
+
+    public int getRed() {
+        return red;
+    }
+
+    public int getGreen() {
+        return green;
+    }
+
+    public int getBlue() {
+        return blue;
+    }
+
+    public int getAlpha() {
+        return alpha;
+    }
+}
@@ -0,0 +1,24 @@
+package net.geofrenzy.android.sdk.domain.requirements;
+
+import net.geofrenzy.android.commons.domain.Interval;
+import net.geofrenzy.android.commons.domain.Unit;
+import net.geofrenzy.android.sdk.domain.requirements.domain.RequirementBaseType;
+
+public class IntervalRequirement extends Requirement {
+    private final Interval interval;
+    private final Unit unit;
+
+    public IntervalRequirement(Interval interval, Unit unit) {
+        super(RequirementBaseType.INTERVAL);
+        this.interval = interval;
+        this.unit = unit;
+    }
+
+    public Interval getInterval() {
+        return interval;
+    }
+
+    public Unit getUnit() {
+        return unit;
+    }
+}
@@ -0,0 +1,16 @@
+package net.geofrenzy.android.sdk.domain.requirements;
+
+import net.geofrenzy.android.sdk.domain.requirements.domain.RequirementBaseType;
+
+public class ProfileRequirement extends Requirement {
+    private final String value;
+
+    public ProfileRequirement(String value) {
+        super(RequirementBaseType.PROFILE);
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,15 @@
+package net.geofrenzy.android.sdk.domain.requirements;
+
+import net.geofrenzy.android.sdk.domain.requirements.domain.RequirementBaseType;
+
+public class Requirement {
+    private final RequirementBaseType baseType;
+
+    protected Requirement(RequirementBaseType baseType) {
+        this.baseType = baseType;
+    }
+
+    public RequirementBaseType getBaseType() {
+        return baseType;
+    }
+}
@@ -0,0 +1,29 @@
+package net.geofrenzy.android.sdk.domain.requirements;
+
+import net.geofrenzy.android.commons.domain.Unit;
+import net.geofrenzy.android.sdk.domain.requirements.domain.RequirementBaseType;
+
+public class ThresholdRequirement extends Requirement {
+    private final double lower;
+    private final double upper;
+    private final Unit unit;
+
+    public ThresholdRequirement(double lower, double upper, Unit unit) {
+        super(RequirementBaseType.THRESHOLD);
+        this.lower = lower;
+        this.upper = upper;
+        this.unit = unit;
+    }
+
+    public double getLower() {
+        return lower;
+    }
+
+    public double getUpper() {
+        return upper;
+    }
+
+    public Unit getUnit() {
+        return unit;
+    }
+}
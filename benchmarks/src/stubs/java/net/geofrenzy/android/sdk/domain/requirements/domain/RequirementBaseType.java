@@ -0,0 +1,10 @@
+package net.geofrenzy.android.sdk.domain.requirements.domain;
+
+public enum RequirementBaseType {
+    COLOR,
+    BOOLEANSET,
+    THRESHOLD,
+    INTERVAL,
+    PROFILE,
+    BLOB
+}
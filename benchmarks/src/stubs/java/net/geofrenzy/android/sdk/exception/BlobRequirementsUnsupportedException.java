@@ -0,0 +1,7 @@
+package net.geofrenzy.android.sdk.exception;
+
+public class BlobRequirementsUnsupportedException extends RuntimeException {
+    public BlobRequirementsUnsupportedException(String geodomain) {
+        super(geodomain);
+    }
+}
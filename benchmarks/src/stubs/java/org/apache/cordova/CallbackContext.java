@@ -0,0 +1,20 @@
+package org.apache.cordova;
+
+import org.json.JSONObject;
+
+/**
+ * Stands in for Cordova's `CallbackContext`. Every result goes through {@link #sendPluginResult}, which
+ * does nothing here; benchmarks override it to see what the plugin sent.
+ */
+public class CallbackContext {
+    public void sendPluginResult(PluginResult pluginResult) {
+    }
+
+    public void success(JSONObject message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void error(String message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+    }
+}
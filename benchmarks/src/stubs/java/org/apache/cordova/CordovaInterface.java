@@ -0,0 +1,11 @@
+package org.apache.cordova;
+
+import java.util.concurrent.ExecutorService;
+
+import android.app.Activity;
+
+public interface CordovaInterface {
+    Activity getActivity();
+
+    ExecutorService getThreadPool();
+}
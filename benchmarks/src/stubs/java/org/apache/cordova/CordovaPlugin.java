@@ -0,0 +1,33 @@
+package org.apache.cordova;
+
+import org.json.JSONException;
+
+/**
+ * Stands in for Cordova's `CordovaPlugin`, with the lifecycle the plugin overrides.
+ */
+public class CordovaPlugin {
+    public CordovaInterface cordova;
+    public CordovaWebView webView;
+
+    public final void initialize(CordovaInterface cordova, CordovaWebView webView) {
+        this.cordova = cordova;
+        this.webView = webView;
+        pluginInitialize();
+    }
+
+    protected void pluginInitialize() {
+    }
+
+    public boolean execute(String action, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        return false;
+    }
+
+    public void onPause(boolean multitasking) {
+    }
+
+    public void onResume(boolean multitasking) {
+    }
+
+    public void onDestroy() {
+    }
+}
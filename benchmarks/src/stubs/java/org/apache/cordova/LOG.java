@@ -0,0 +1,15 @@
+package org.apache.cordova;
+
+/**
+ * Stands in for Cordova's `LOG`, with debug logging off as it is in a release build.
+ */
+public class LOG {
+    public static final int DEBUG = 3;
+
+    public static boolean isLoggable(int level) {
+        return false;
+    }
+
+    public static void d(String tag, String message) {
+    }
+}
@@ -0,0 +1,60 @@
+package org.apache.cordova;
+
+import org.json.JSONObject;
+
+/**
+ * Stands in for Cordova's `PluginResult`, for the kinds of result the plugin sends.
+ */
+public class PluginResult {
+    public enum Status {
+        NO_RESULT,
+        OK,
+        ERROR
+    }
+
+    public static final int MESSAGE_TYPE_STRING = 1;
+    public static final int MESSAGE_TYPE_JSON = 2;
+
+    private final Status status;
+    private final int messageType;
+    private final String message;
+    private boolean keepCallback = false;
+
+    public PluginResult(Status status) {
+        this(status, MESSAGE_TYPE_STRING, null);
+    }
+
+    public PluginResult(Status status, String message) {
+        this(status, MESSAGE_TYPE_STRING, message);
+    }
+
+    public PluginResult(Status status, JSONObject message) {
+        this(status, MESSAGE_TYPE_JSON, message.toString());
+    }
+
+    private PluginResult(Status status, int messageType, String message) {
+        this.status = status;
+        this.messageType = messageType;
+        this.message = message;
+    }
+
+    public void setKeepCallback(boolean keepCallback) {
+        this.keepCallback = keepCallback;
+    }
+
+    public boolean getKeepCallback() {
+        return keepCallback;
+    }
+
+    public int getStatus() {
+        return status.ordinal();
+    }
+
+    public int getMessageType() {
+        return messageType;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,394 @@
+package net.geofrenzy.android.cordova;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A spatial index over the fences of one agent state, for answering point queries natively instead of
+ * sending every fence's geometry to Javascript.
+ *
+ * The index is an R-tree packed with Sort-Tile-Recursive: fences are sorted into slices by longitude and
+ * then by latitude within each slice, and each run of {@link #NODE_CAPACITY} becomes a node. Once built
+ * it never changes, so any number of threads can query it; an agent just builds a new one when its
+ * fences refresh, reusing the {@link Geometry} of every fence whose outline didn't change.
+ *
+ * Distances are in meters on a plane tangent to the earth at the queried point, which is accurate to
+ * well under a percent at the distances fences are watched from. Fences across the antimeridian from
+ * the queried point are treated as far away.
+ */
+class FenceIndex {
+    private static final int NODE_CAPACITY = 16;
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180;
+
+    /**
+     * A fence outline, as interleaved longitudes and latitudes, with its bounding box.
+     * An outline that isn't explicitly closed is treated as if it were.
+     */
+    static final class Geometry {
+        private final double[] coordinates;
+        private final double minLongitude;
+        private final double minLatitude;
+        private final double maxLongitude;
+        private final double maxLatitude;
+
+        public Geometry(double[] coordinates) {
+            if(coordinates.length < 2 || coordinates.length % 2 != 0) {
+                throw new IllegalArgumentException("FenceIndex was given a fence outline without any whole points.");
+            }
+            this.coordinates = coordinates;
+            double minLongitude = Double.POSITIVE_INFINITY;
+            double minLatitude = Double.POSITIVE_INFINITY;
+            double maxLongitude = Double.NEGATIVE_INFINITY;
+            double maxLatitude = Double.NEGATIVE_INFINITY;
+            for(int i = 0; i < coordinates.length; i += 2) {
+                minLongitude = Math.min(minLongitude, coordinates[i]);
+                maxLongitude = Math.max(maxLongitude, coordinates[i]);
+                minLatitude = Math.min(minLatitude, coordinates[i + 1]);
+                maxLatitude = Math.max(maxLatitude, coordinates[i + 1]);
+            }
+            this.minLongitude = minLongitude;
+            this.minLatitude = minLatitude;
+            this.maxLongitude = maxLongitude;
+            this.maxLatitude = maxLatitude;
+        }
+
+        /**
+         * Even-odd rule, so a point exactly on an edge may land on either side.
+         */
+        public boolean contains(double longitude, double latitude) {
+            if(longitude < minLongitude || longitude > maxLongitude || latitude < minLatitude || latitude > maxLatitude) {
+                return false;
+            }
+            boolean inside = false;
+            int length = coordinates.length;
+            for(int i = 0, j = length - 2; i < length; j = i, i += 2) {
+                double yi = coordinates[i + 1];
+                double yj = coordinates[j + 1];
+                if((yi > latitude) != (yj > latitude)) {
+                    double crossing = coordinates[i] + (latitude - yi) * (coordinates[j] - coordinates[i]) / (yj - yi);
+                    if(longitude < crossing) {
+                        inside = !inside;
+                    }
+                }
+            }
+            return inside;
+        }
+
+        /**
+         * 0 inside the outline, and otherwise the distance to its nearest edge.
+         */
+        public double distanceMeters(double longitude, double latitude, double metersPerDegreeLongitude) {
+            if(contains(longitude, latitude)) {
+                return 0;
+            }
+            int length = coordinates.length;
+            double closestSquared = Double.POSITIVE_INFINITY;
+            double previousX = (coordinates[length - 2] - longitude) * metersPerDegreeLongitude;
+            double previousY = (coordinates[length - 1] - latitude) * METERS_PER_DEGREE;
+            for(int i = 0; i < length; i += 2) {
+                double x = (coordinates[i] - longitude) * metersPerDegreeLongitude;
+                double y = (coordinates[i + 1] - latitude) * METERS_PER_DEGREE;
+                closestSquared = Math.min(closestSquared, squaredDistanceToSegment(previousX, previousY, x, y));
+                previousX = x;
+                previousY = y;
+            }
+            return Math.sqrt(closestSquared);
+        }
+    }
+
+    /**
+     * A fence that answered a query. `distanceMeters` is 0 for fences that contain the queried point.
+     */
+    static final class Match {
+        private final String key;
+        private final String status;
+        private final double anchorLongitude;
+        private final double anchorLatitude;
+        private final double distanceMeters;
+
+        private Match(String key, String status, double anchorLongitude, double anchorLatitude, double distanceMeters) {
+            this.key = key;
+            this.status = status;
+            this.anchorLongitude = anchorLongitude;
+            this.anchorLatitude = anchorLatitude;
+            this.distanceMeters = distanceMeters;
+        }
+
+        public String getKey() {
+            return this.key;
+        }
+
+        public String getStatus() {
+            return this.status;
+        }
+
+        public double getAnchorLongitude() {
+            return this.anchorLongitude;
+        }
+
+        public double getAnchorLatitude() {
+            return this.anchorLatitude;
+        }
+
+        public double getDistanceMeters() {
+            return this.distanceMeters;
+        }
+    }
+
+    /**
+     * Collects fences in any order, then packs them into an index.
+     */
+    static final class Builder {
+        private final ArrayList<String> keys = new ArrayList<String>();
+        private final ArrayList<String> statuses = new ArrayList<String>();
+        private final ArrayList<double[]> anchors = new ArrayList<double[]>();
+        private final ArrayList<Geometry> geometries = new ArrayList<Geometry>();
+
+        public Builder add(String key, String status, double anchorLongitude, double anchorLatitude, Geometry geometry) {
+            keys.add(key);
+            statuses.add(status);
+            anchors.add(new double[] {anchorLongitude, anchorLatitude});
+            geometries.add(geometry);
+            return this;
+        }
+
+        public FenceIndex build() {
+            return new FenceIndex(this);
+        }
+    }
+
+    private static final Comparator<Match> BY_DISTANCE = new Comparator<Match>() {
+        public int compare(Match first, Match second) {
+            return Double.compare(first.distanceMeters, second.distanceMeters);
+        }
+    };
+
+    //Fences in packed order.
+    private final String[] keys;
+    private final String[] statuses;
+    private final double[][] anchors;
+    private final Geometry[] geometries;
+    //Bounding boxes of each level's nodes, as [minLongitude, minLatitude, maxLongitude, maxLatitude] runs;
+    //level 0 is the fences themselves, and the last level is the single root.
+    private final double[][] levels;
+
+    private FenceIndex(Builder builder) {
+        final int count = builder.keys.size();
+        Integer[] order = new Integer[count];
+        for(int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        final Geometry[] unsorted = builder.geometries.toArray(new Geometry[count]);
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer first, Integer second) {
+                return Double.compare(centerLongitude(unsorted[first]), centerLongitude(unsorted[second]));
+            }
+        });
+        int leafCount = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceSize = NODE_CAPACITY * (int) Math.ceil(Math.sqrt(leafCount));
+        for(int sliceStart = 0; sliceStart < count; sliceStart += sliceSize) {
+            Arrays.sort(order, sliceStart, Math.min(count, sliceStart + sliceSize), new Comparator<Integer>() {
+                public int compare(Integer first, Integer second) {
+                    return Double.compare(centerLatitude(unsorted[first]), centerLatitude(unsorted[second]));
+                }
+            });
+        }
+
+        keys = new String[count];
+        statuses = new String[count];
+        anchors = new double[count][];
+        geometries = new Geometry[count];
+        double[] boxes = new double[4 * count];
+        for(int i = 0; i < count; i++) {
+            int source = order[i];
+            keys[i] = builder.keys.get(source);
+            statuses[i] = builder.statuses.get(source);
+            anchors[i] = builder.anchors.get(source);
+            geometries[i] = unsorted[source];
+            boxes[4 * i] = geometries[i].minLongitude;
+            boxes[4 * i + 1] = geometries[i].minLatitude;
+            boxes[4 * i + 2] = geometries[i].maxLongitude;
+            boxes[4 * i + 3] = geometries[i].maxLatitude;
+        }
+
+        ArrayList<double[]> packedLevels = new ArrayList<double[]>();
+        packedLevels.add(boxes);
+        while(boxes.length > 4) {
+            int childCount = boxes.length / 4;
+            int nodeCount = (childCount + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            double[] nodes = new double[4 * nodeCount];
+            for(int node = 0; node < nodeCount; node++) {
+                nodes[4 * node] = Double.POSITIVE_INFINITY;
+                nodes[4 * node + 1] = Double.POSITIVE_INFINITY;
+                nodes[4 * node + 2] = Double.NEGATIVE_INFINITY;
+                nodes[4 * node + 3] = Double.NEGATIVE_INFINITY;
+                for(int child = node * NODE_CAPACITY; child < Math.min(childCount, (node + 1) * NODE_CAPACITY); child++) {
+                    nodes[4 * node] = Math.min(nodes[4 * node], boxes[4 * child]);
+                    nodes[4 * node + 1] = Math.min(nodes[4 * node + 1], boxes[4 * child + 1]);
+                    nodes[4 * node + 2] = Math.max(nodes[4 * node + 2], boxes[4 * child + 2]);
+                    nodes[4 * node + 3] = Math.max(nodes[4 * node + 3], boxes[4 * child + 3]);
+                }
+            }
+            packedLevels.add(nodes);
+            boxes = nodes;
+        }
+        levels = packedLevels.toArray(new double[packedLevels.size()][]);
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Every fence whose outline contains the point.
+     */
+    public List<Match> queryContains(double latitude, double longitude) {
+        ArrayList<Match> matches = new ArrayList<Match>();
+        if(keys.length > 0) {
+            collectContaining(levels.length - 1, 0, latitude, longitude, matches);
+        }
+        return matches;
+    }
+
+    /**
+     * Every fence whose outline comes within `meters` of the point, nearest first.
+     */
+    public List<Match> queryWithinRadius(double latitude, double longitude, double meters) {
+        ArrayList<Match> matches = new ArrayList<Match>();
+        if(keys.length > 0) {
+            collectWithinRadius(levels.length - 1, 0, latitude, longitude, metersPerDegreeLongitude(latitude), meters, matches);
+        }
+        Collections.sort(matches, BY_DISTANCE);
+        return matches;
+    }
+
+    /**
+     * The `count` fences whose outlines are nearest the point, nearest first.
+     *
+     * Nodes are visited best first, by the distance to their bounding box, so only the part of the
+     * tree that could still hold a nearer fence is ever looked at.
+     */
+    public List<Match> nearestFences(double latitude, double longitude, int count) {
+        ArrayList<Match> matches = new ArrayList<Match>();
+        if(keys.length == 0 || count < 1) {
+            return matches;
+        }
+        double metersPerDegreeLongitude = metersPerDegreeLongitude(latitude);
+        PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+        int root = levels.length - 1;
+        candidates.add(new Candidate(boxDistanceMeters(levels[root], 0, latitude, longitude, metersPerDegreeLongitude), root, 0, false));
+        Candidate candidate;
+        while(matches.size() < count && (candidate = candidates.poll()) != null) {
+            if(candidate.exact) {
+                matches.add(match(candidate.index, candidate.distanceMeters));
+            } else if(candidate.level == 0) {
+                //The box was only a lower bound; queue the fence again at its real distance.
+                double distance = geometries[candidate.index].distanceMeters(longitude, latitude, metersPerDegreeLongitude);
+                candidates.add(new Candidate(distance, 0, candidate.index, true));
+            } else {
+                int childLevel = candidate.level - 1;
+                int childCount = levels[childLevel].length / 4;
+                for(int child = candidate.index * NODE_CAPACITY; child < Math.min(childCount, (candidate.index + 1) * NODE_CAPACITY); child++) {
+                    candidates.add(new Candidate(boxDistanceMeters(levels[childLevel], child, latitude, longitude, metersPerDegreeLongitude),
+                            childLevel, child, false));
+                }
+            }
+        }
+        return matches;
+    }
+
+    private void collectContaining(int level, int node, double latitude, double longitude, List<Match> matches) {
+        double[] boxes = levels[level];
+        if(longitude < boxes[4 * node] || latitude < boxes[4 * node + 1] ||
+                longitude > boxes[4 * node + 2] || latitude > boxes[4 * node + 3]) {
+            return;
+        }
+        if(level == 0) {
+            if(geometries[node].contains(longitude, latitude)) {
+                matches.add(match(node, 0));
+            }
+            return;
+        }
+        int childCount = levels[level - 1].length / 4;
+        for(int child = node * NODE_CAPACITY; child < Math.min(childCount, (node + 1) * NODE_CAPACITY); child++) {
+            collectContaining(level - 1, child, latitude, longitude, matches);
+        }
+    }
+
+    private void collectWithinRadius(int level, int node, double latitude, double longitude, double metersPerDegreeLongitude,
+            double meters, List<Match> matches) {
+        if(boxDistanceMeters(levels[level], node, latitude, longitude, metersPerDegreeLongitude) > meters) {
+            return;
+        }
+        if(level == 0) {
+            double distance = geometries[node].distanceMeters(longitude, latitude, metersPerDegreeLongitude);
+            if(distance <= meters) {
+                matches.add(match(node, distance));
+            }
+            return;
+        }
+        int childCount = levels[level - 1].length / 4;
+        for(int child = node * NODE_CAPACITY; child < Math.min(childCount, (node + 1) * NODE_CAPACITY); child++) {
+            collectWithinRadius(level - 1, child, latitude, longitude, metersPerDegreeLongitude, meters, matches);
+        }
+    }
+
+    private Match match(int fence, double distanceMeters) {
+        return new Match(keys[fence], statuses[fence], anchors[fence][0], anchors[fence][1], distanceMeters);
+    }
+
+    private static final class Candidate implements Comparable<Candidate> {
+        private final double distanceMeters;
+        private final int level;
+        private final int index;
+        //Whether `distanceMeters` is the fence's own distance rather than its box's.
+        private final boolean exact;
+
+        private Candidate(double distanceMeters, int level, int index, boolean exact) {
+            this.distanceMeters = distanceMeters;
+            this.level = level;
+            this.index = index;
+            this.exact = exact;
+        }
+
+        public int compareTo(Candidate other) {
+            int byDistance = Double.compare(distanceMeters, other.distanceMeters);
+            //On a tie, a fence that's already exact goes out before boxes that can't beat it.
+            return byDistance != 0 ? byDistance : Boolean.compare(other.exact, exact);
+        }
+    }
+
+    private static double boxDistanceMeters(double[] boxes, int box, double latitude, double longitude, double metersPerDegreeLongitude) {
+        double dx = Math.max(0, Math.max(boxes[4 * box] - longitude, longitude - boxes[4 * box + 2])) * metersPerDegreeLongitude;
+        double dy = Math.max(0, Math.max(boxes[4 * box + 1] - latitude, latitude - boxes[4 * box + 3])) * METERS_PER_DEGREE;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static double metersPerDegreeLongitude(double latitude) {
+        return METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+    }
+
+    private static double squaredDistanceToSegment(double startX, double startY, double endX, double endY) {
+        double dx = endX - startX;
+        double dy = endY - startY;
+        double t = 0;
+        if(dx != 0 || dy != 0) {
+            t = Math.max(0, Math.min(1, -(startX * dx + startY * dy) / (dx * dx + dy * dy)));
+        }
+        double x = startX + t * dx;
+        double y = startY + t * dy;
+        return x * x + y * y;
+    }
+
+    private static double centerLongitude(Geometry geometry) {
+        return (geometry.minLongitude + geometry.maxLongitude) / 2;
+    }
+
+    private static double centerLatitude(Geometry geometry) {
+        return (geometry.minLatitude + geometry.maxLatitude) / 2;
+    }
+}
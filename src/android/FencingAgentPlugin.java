@@ -1,8 +1,24 @@
 package net.geofrenzy.android.cordova;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.HashMap; 
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.LOG;
@@ -11,8 +27,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaArgs;
+import org.apache.cordova.PluginResult;
 
 import android.content.Context;
+import android.util.Base64;
 import android.util.Log;
 
 import net.geofrenzy.android.sdk.agent.FencingAgent;
@@ -37,24 +55,117 @@ import net.geofrenzy.android.sdk.domain.requirements.Requirement;
 public class FencingAgentPlugin extends CordovaPlugin {
     private static final String LOG_TAG = "FencingAgentPlugin";
 
-    //[profile.geodomain, profile.range, profile.zoomLevel, profile.detectApproach, profile.interiorFocus, profile.dwellTime]
+    //[profile.geodomain, profile.range, profile.zoomLevel, profile.detectApproach, profile.interiorFocus, profile.dwellTime,
+    // profile.deltaUpdates, profile.maxQueuedMessages, profile.queuePolicy, profile.pointEncoding, profile.simplifyGeometry,
+    // profile.warmStart]
     private static final int GEODOMAIN_ARGUMENT_POSITION = 0;
     private static final int RANGE_ARGUMENT_POSITION = 1;
     private static final int ZOOMLEVEL_ARGUMENT_POSITION = 2;
     private static final int DETECT_APPROACH_ARGUMENT_POSITION = 3;
     private static final int INTERIOR_FOCUS_ARGUMENT_POSITION = 4;
     private static final int DWELL_TIME_ARGUMENT_POSITION = 5;
+    private static final int DELTA_UPDATES_ARGUMENT_POSITION = 6;
+    private static final int MAX_QUEUED_MESSAGES_ARGUMENT_POSITION = 7;
+    private static final int QUEUE_POLICY_ARGUMENT_POSITION = 8;
+    private static final int POINT_ENCODING_ARGUMENT_POSITION = 9;
+    private static final int SIMPLIFY_GEOMETRY_ARGUMENT_POSITION = 10;
+    private static final int WARM_START_ARGUMENT_POSITION = 11;
+    //[geodomain, latitude, longitude, meters or count] for spatial queries
+    private static final int QUERY_LATITUDE_ARGUMENT_POSITION = 1;
+    private static final int QUERY_LONGITUDE_ARGUMENT_POSITION = 2;
+    private static final int QUERY_LIMIT_ARGUMENT_POSITION = 3;
 
-    private HashMap<String, FencingAgent<Void>> agents = new HashMap<String, FencingAgent<Void>>();
-    private HashMap<String, CordovaDelegate> delegates = new HashMap<String, CordovaDelegate>();
+    private static final int DEFAULT_MAX_QUEUED_MESSAGES = 32;
+    private static final int DEFAULT_TRACE_CAPACITY = 256;
+    //Under the app's files directory.
+    private static final String SNAPSHOT_DIRECTORY = "fencingAgentSnapshots";
+    //How often, at most, an agent's state is saved for warm starts while it's running; it's always saved on quit.
+    private static final long SNAPSHOT_SAVE_INTERVAL_MILLIS = 60 * 1000;
+    //Written in place of a `geometryRef` for fences whose points are always sent with them.
+    private static final int NO_GEOMETRY_REF = -1;
+
+    //Written geodomains, by identifier, TTL, and retrieval time, shared by every agent.
+    private static final GeodomainCache<String> GEODOMAIN_CACHE = new GeodomainCache<String>() {
+        protected String build(Geodomain geodomain) {
+            JsonStreamWriter geodomainWriter = new JsonStreamWriter();
+            writeUncachedGeodomain(geodomainWriter, geodomain);
+            return geodomainWriter.toString();
+        }
+    };
+    private static final SimplifiedGeometryCache SIMPLIFIED_GEOMETRY_CACHE = new SimplifiedGeometryCache();
+    private static final RequirementEvaluator REQUIREMENT_EVALUATOR = new RequirementEvaluator();
+
+    private ConcurrentHashMap<String, FencingAgent<Void>> agents = new ConcurrentHashMap<String, FencingAgent<Void>>();
+    private ConcurrentHashMap<String, CordovaDelegate> delegates = new ConcurrentHashMap<String, CordovaDelegate>();
+    private final AgentHub hub = new AgentHub();
+    private final TraceRecorder trace = new TraceRecorder();
+    private SnapshotStore snapshotStore;
+    //Whether the WebView is paused; delegates created meanwhile start out paused too.
+    private volatile boolean paused = false;
+
+    @Override
+    protected void pluginInitialize() {
+        snapshotStore = new SnapshotStore(new File(cordova.getActivity().getApplicationContext().getFilesDir(), SNAPSHOT_DIRECTORY));
+    }
+
+    /**
+     * Javascript can't do anything with fence refreshes until the WebView resumes, so until then each
+     * delegate only keeps the agent's latest state, and serializes nothing.
+     */
+    @Override
+    public void onPause(boolean multitasking) {
+        paused = true;
+        for(CordovaDelegate delegate : delegates.values()) {
+            delegate.pause();
+        }
+    }
+
+    @Override
+    public void onResume(boolean multitasking) {
+        paused = false;
+        for(CordovaDelegate delegate : delegates.values()) {
+            delegate.resume();
+        }
+    }
+
+    /**
+     * Saves what warm starts need, and quits every agent, since nothing can hear from them anymore.
+     */
+    @Override
+    public void onDestroy() {
+        for(String geodomain : agents.keySet()) {
+            FencingAgent<Void> fa = agents.remove(geodomain);
+            CordovaDelegate delegate = delegates.remove(geodomain);
+            try {
+                if(delegate != null) {
+                    delegate.saveSnapshot(true);
+                }
+                fa.quit();
+            } catch(RuntimeException exception) {
+                logError(exception);
+            }
+        }
+        delegates.clear();
+        trace.stop();
+    }
 
     public boolean execute(String action, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
         try {
+            PluginAction actionType = PluginAction.fromName(action);
+            if(!actionType.targetsAgent()) {
+                trace.record(TraceRecorder.KIND_ACTION, action, null, -1);
+                executePluginAction(actionType, args, callbackContext);
+                return true;
+            }
+
             String geodomain = args.optString(GEODOMAIN_ARGUMENT_POSITION);
             if(geodomain == null) {
                 throw new IllegalArgumentException("`null` Geodomain recieved by FencingAgent Cordova plugin.");
             }
-            PluginAction actionType = PluginAction.fromName(action);
+            trace.record(TraceRecorder.KIND_ACTION, action, geodomain, -1);
+            if(isDebugLogging()) {
+                debug("Recieved action `" + action + "` from Javascript for `" + geodomain + "`");
+            }
 
             FencingAgent<Void> fa = agents.get(geodomain);
             CordovaDelegate delegate = delegates.get(geodomain);
@@ -70,43 +181,13 @@ public class FencingAgentPlugin extends CordovaPlugin {
             }
 
             JSONObject responseJSON = new JSONObject();
-            System.out.println("MARK Recieved an action from JS: " + action);
             switch(actionType) {
                 case CREATE_AGENT:
-                    if(fa != null) {
-                        throw new IllegalStateException(
-                                "Geofrenzy Cordova SDK attempted to create a FencingAgent that already existed." +
-                                "This state should be unreachable; please file a bug report with Geofrenzy."
-                        );
-                    }
-                    int zoomLevel = args.getInt(ZOOMLEVEL_ARGUMENT_POSITION);
-                    int range = args.getInt(RANGE_ARGUMENT_POSITION);
-                    boolean detectApproach = args.getBoolean(DETECT_APPROACH_ARGUMENT_POSITION);
-                    boolean interiorFocus = args.getBoolean(INTERIOR_FOCUS_ARGUMENT_POSITION);
-                    long dwellTime = (long) 1000 * args.getInt(DWELL_TIME_ARGUMENT_POSITION);
-
-                    fa = new FencingAgent<Void>(
-                            new FencingAgentProfile.Builder()
-                            .setGeodomain(geodomain)
-                            .setRange(range)
-                            .setZoomLevel(zoomLevel)
-                            .setEmitApproachEvents(detectApproach)
-                            .setInsideFocus(interiorFocus)
-                            .setDwellTime(dwellTime)
-                            .setContext(this.cordova.getActivity().getApplicationContext())
-                            .createAgentProfile(),
-                            Void.class
-                            );
-                    delegate = new CordovaDelegate(fa);
-
-                    agents.put(geodomain, fa);
-                    delegates.put(geodomain, delegate);
-
+                    createAgent(geodomain, args);
                     callbackContext.success(responseJSON);
                     return true;
                 case START:
-                    fa.addDelegate(delegate);
-                    fa.start();
+                    startAgent(fa, delegate);
                     callbackContext.success(responseJSON);
                     return true;
                 case QUIT:
@@ -114,16 +195,42 @@ public class FencingAgentPlugin extends CordovaPlugin {
                     callbackContext.success(responseJSON);
                     return true;
                 case PURGE_CACHE:
-                    fa.purgeCache();
+                    purgeAgentCache(fa, delegate);
+                    callbackContext.success(responseJSON);
+                    return true;
+                case QUEUE_STATS:
+                    responseJSON.put("content", delegate.serializeQueueStats());
+                    callbackContext.success(responseJSON);
+                    return true;
+                case GET_METRICS:
+                    responseJSON.put("content", delegate.serializeMetrics());
+                    callbackContext.success(responseJSON);
+                    return true;
+                case RESYNC:
+                    delegate.requestFullSnapshot();
                     callbackContext.success(responseJSON);
                     return true;
                 case WATCH_FOR_NEXT_EVENT:
-                    System.out.println("MARK watchfornextevent recieved from JS");
                     if(callbackContext == null) {
                         throw new IllegalStateException("Fencing Agent plugin for Cordova recieved a null CallbackContext from Javascript.");
                     }
                     delegate.notifyJavascript(callbackContext);
                     return true;
+                case SUBSCRIBE:
+                    if(callbackContext == null) {
+                        throw new IllegalStateException("Fencing Agent plugin for Cordova recieved a null CallbackContext from Javascript.");
+                    }
+                    delegate.subscribeJavascript(callbackContext);
+                    return true;
+                case SET_FIELDS:
+                    delegate.setFields(StateField.unionOf(args.getJSONArray(1)));
+                    callbackContext.success(responseJSON);
+                    return true;
+                case QUERY_CONTAINS:
+                case QUERY_WITHIN_RADIUS:
+                case NEAREST_FENCES:
+                    queryFences(actionType, delegate, args, callbackContext);
+                    return true;
                 default:
                     throw new IllegalStateException("You have found a bug in the Fencing Agent plugin for Cordova. Please report it to Geofrenzy with a stacktrace.");
             }
@@ -134,23 +241,403 @@ public class FencingAgentPlugin extends CordovaPlugin {
         }
     }
 
+    /**
+     * Runs the actions that aren't about a single agent: the hub's, bulk creation, requirement evaluation, and tracing.
+     */
+    private void executePluginAction(PluginAction actionType, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        if(callbackContext == null) {
+            throw new IllegalStateException("Fencing Agent plugin for Cordova recieved a null CallbackContext from Javascript.");
+        }
+        JSONObject responseJSON = new JSONObject();
+        switch(actionType) {
+            case SUBSCRIBE_HUB:
+                hub.subscribe(callbackContext);
+                return;
+            case START_ALL:
+            case QUIT_ALL:
+            case PURGE_CACHE_ALL:
+                executeBulkAction(actionType, args, callbackContext);
+                return;
+            case CREATE_AGENTS:
+                createAgents(args.getJSONArray(0), args.optBoolean(1), callbackContext);
+                return;
+            case EVALUATE_REQUIREMENTS:
+                evaluateRequirements(args.getJSONObject(0), callbackContext);
+                return;
+            case START_TRACE:
+                trace.start(args.isNull(0) ? DEFAULT_TRACE_CAPACITY : args.getInt(0));
+                callbackContext.success(responseJSON);
+                return;
+            case STOP_TRACE:
+                trace.stop();
+                callbackContext.success(responseJSON);
+                return;
+            case DUMP_TRACE:
+                responseJSON.put("content", trace.serialize());
+                callbackContext.success(responseJSON);
+                return;
+            default:
+                throw new IllegalStateException("You have found a bug in the Fencing Agent plugin for Cordova. Please report it to Geofrenzy with a stacktrace.");
+        }
+    }
+
+    /**
+     * `args` are the same as `createAgent`'s.
+     */
+    private FencingAgent<Void> createAgent(String geodomain, CordovaArgs args) throws JSONException {
+        //Checked before building anything, so that a duplicate doesn't build a whole agent just to throw it away.
+        if(agents.containsKey(geodomain)) {
+            throw agentAlreadyExists();
+        }
+        int zoomLevel = args.getInt(ZOOMLEVEL_ARGUMENT_POSITION);
+        int range = args.getInt(RANGE_ARGUMENT_POSITION);
+        boolean detectApproach = args.getBoolean(DETECT_APPROACH_ARGUMENT_POSITION);
+        boolean interiorFocus = args.getBoolean(INTERIOR_FOCUS_ARGUMENT_POSITION);
+        long dwellTime = (long) 1000 * args.getInt(DWELL_TIME_ARGUMENT_POSITION);
+        DelegateOptions delegateOptions = new DelegateOptions(
+                args.optBoolean(DELTA_UPDATES_ARGUMENT_POSITION),
+                args.isNull(MAX_QUEUED_MESSAGES_ARGUMENT_POSITION) ?
+                        DEFAULT_MAX_QUEUED_MESSAGES :
+                        args.getInt(MAX_QUEUED_MESSAGES_ARGUMENT_POSITION),
+                QueuePolicy.fromName(args.optString(QUEUE_POLICY_ARGUMENT_POSITION)),
+                PointEncoding.fromName(args.optString(POINT_ENCODING_ARGUMENT_POSITION)),
+                args.optBoolean(SIMPLIFY_GEOMETRY_ARGUMENT_POSITION) ?
+                        SimplifiedGeometryCache.toleranceForZoomLevel(zoomLevel) :
+                        0,
+                args.optBoolean(WARM_START_ARGUMENT_POSITION)
+                );
+
+        FencingAgent<Void> fa = new FencingAgent<Void>(
+                new FencingAgentProfile.Builder()
+                .setGeodomain(geodomain)
+                .setRange(range)
+                .setZoomLevel(zoomLevel)
+                .setEmitApproachEvents(detectApproach)
+                .setInsideFocus(interiorFocus)
+                .setDwellTime(dwellTime)
+                .setContext(this.cordova.getActivity().getApplicationContext())
+                .createAgentProfile(),
+                Void.class
+                );
+        CordovaDelegate delegate = new CordovaDelegate(fa, geodomain, delegateOptions);
+
+        //Claimed before anything is registered, so that two creations that both got past the check above can't both win.
+        if(agents.putIfAbsent(geodomain, fa) != null) {
+            throw agentAlreadyExists();
+        }
+        delegates.put(geodomain, delegate);
+        if(paused) {
+            delegate.pause();
+        }
+        return fa;
+    }
+
+    private static IllegalStateException agentAlreadyExists() {
+        return new IllegalStateException(
+                "Geofrenzy Cordova SDK attempted to create a FencingAgent that already existed." +
+                "This state should be unreachable; please file a bug report with Geofrenzy."
+        );
+    }
+
+    /**
+     * Builds an agent for each entry of `agentArgs`, each being `createAgent`'s arguments, in parallel on
+     * the thread pool, and starts them if `start` is set. Answers once every agent is done, with each
+     * geodomain's `{success: true}` or `{success: false, message}`.
+     */
+    private void createAgents(JSONArray agentArgs, final boolean start, CallbackContext callbackContext) throws JSONException {
+        final int agentCount = agentArgs.length();
+        final String[] geodomains = new String[agentCount];
+        //Checked up front, so that a bad entry fails the call before any agent is built.
+        final CordovaArgs[] parsedArgs = new CordovaArgs[agentCount];
+        HashSet<String> uniqueGeodomains = new HashSet<String>();
+        for(int i = 0; i < agentCount; i++) {
+            JSONArray singleAgentArgs = agentArgs.getJSONArray(i);
+            geodomains[i] = singleAgentArgs.getString(GEODOMAIN_ARGUMENT_POSITION);
+            if(!uniqueGeodomains.add(geodomains[i])) {
+                throw new IllegalArgumentException("FencingAgent plugin for Cordova recieved geodomain `" +
+                        geodomains[i] + "` more than once.");
+            }
+            parsedArgs[i] = new CordovaArgs(singleAgentArgs);
+        }
+        final BatchResults results = new BatchResults(geodomains, callbackContext);
+        if(agentCount == 0) {
+            results.respond();
+            return;
+        }
+
+        for(int i = 0; i < agentCount; i++) {
+            final int index = i;
+            cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    JSONObject created = runForGeodomainOrLog(new GeodomainTask() {
+                        public void run(JSONObject result) throws JSONException {
+                            createAgent(geodomains[index], parsedArgs[index]);
+                        }
+                    });
+                    if(!start || created == null || !created.optBoolean("success", false)) {
+                        results.record(index, created);
+                        return;
+                    }
+                    //Agents have to be started from a thread with a `Looper`, which the thread pool's threads don't have.
+                    cordova.getActivity().runOnUiThread(new Runnable() {
+                        public void run() {
+                            results.record(index, runForGeodomainOrLog(new GeodomainTask() {
+                                public void run(JSONObject result) {
+                                    startAgent(agents.get(geodomains[index]), delegates.get(geodomains[index]));
+                                }
+                            }));
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * The bulk actions take an array of geodomains where every other action takes one.
+     */
+    private void executeBulkAction(final PluginAction actionType, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        JSONArray geodomains = args.getJSONArray(GEODOMAIN_ARGUMENT_POSITION);
+        JSONObject results = new JSONObject();
+        for(int i = 0; i < geodomains.length(); i++) {
+            final String geodomain = geodomains.getString(i);
+            results.put(geodomain, runForGeodomain(new GeodomainTask() {
+                public void run(JSONObject result) {
+                    FencingAgent<Void> fa = agents.get(geodomain);
+                    CordovaDelegate delegate = delegates.get(geodomain);
+                    if(fa == null || delegate == null) {
+                        throw new IllegalArgumentException("FencingAgent plugin for Cordova has no agent for geodomain `" +
+                                geodomain + "`.");
+                    }
+                    switch(actionType) {
+                        case START_ALL:
+                            startAgent(fa, delegate);
+                            break;
+                        case QUIT_ALL:
+                            fa.quit();
+                            break;
+                        case PURGE_CACHE_ALL:
+                            purgeAgentCache(fa, delegate);
+                            break;
+                        default:
+                            throw new IllegalStateException("You have found a bug in the Fencing Agent plugin for Cordova. Please report it to Geofrenzy with a stacktrace.");
+                    }
+                }
+            }));
+        }
+        JSONObject responseJSON = new JSONObject();
+        responseJSON.put("content", results);
+        callbackContext.success(responseJSON);
+    }
+
+    /**
+     * Answers a spatial query from the agent's latest fences on the thread pool, since the first query
+     * after a refresh has to rebuild the index. Only the matching fences' keys, statuses, anchorpoints,
+     * and distances go back to Javascript.
+     */
+    private void queryFences(final PluginAction actionType, final CordovaDelegate delegate, CordovaArgs args,
+            final CallbackContext callbackContext) throws JSONException {
+        final double latitude = args.getDouble(QUERY_LATITUDE_ARGUMENT_POSITION);
+        final double longitude = args.getDouble(QUERY_LONGITUDE_ARGUMENT_POSITION);
+        if(Double.isNaN(latitude) || latitude < -90 || latitude > 90 || Double.isNaN(longitude) || longitude < -180 || longitude > 180) {
+            throw new IllegalArgumentException("FencingAgent plugin for Cordova recieved a query point outside of the globe.");
+        }
+        final double radius = actionType == PluginAction.QUERY_WITHIN_RADIUS ? args.getDouble(QUERY_LIMIT_ARGUMENT_POSITION) : 0;
+        final int count = actionType == PluginAction.NEAREST_FENCES ? args.getInt(QUERY_LIMIT_ARGUMENT_POSITION) : 0;
+        if(radius < 0 || count < 0) {
+            throw new IllegalArgumentException("FencingAgent plugin for Cordova recieved a negative query radius or count.");
+        }
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    FenceIndex fenceIndex = delegate.currentFenceIndex();
+                    List<FenceIndex.Match> matches;
+                    switch(actionType) {
+                        case QUERY_CONTAINS:
+                            matches = fenceIndex.queryContains(latitude, longitude);
+                            break;
+                        case QUERY_WITHIN_RADIUS:
+                            matches = fenceIndex.queryWithinRadius(latitude, longitude, radius);
+                            break;
+                        default:
+                            matches = fenceIndex.nearestFences(latitude, longitude, count);
+                            break;
+                    }
+                    JSONArray serializedMatches = new JSONArray();
+                    for(FenceIndex.Match match : matches) {
+                        JSONObject serializedMatch = new JSONObject();
+                        serializedMatch.put("key", match.getKey());
+                        serializedMatch.put("status", match.getStatus());
+                        JSONArray anchorPoint = new JSONArray();
+                        anchorPoint.put(match.getAnchorLongitude());
+                        anchorPoint.put(match.getAnchorLatitude());
+                        serializedMatch.put("anchorpoint", anchorPoint);
+                        serializedMatch.put("distance", match.getDistanceMeters());
+                        serializedMatches.put(serializedMatch);
+                    }
+                    JSONObject responseJSON = new JSONObject();
+                    responseJSON.put("content", serializedMatches);
+                    callbackContext.success(responseJSON);
+                } catch(Throwable throwable) {
+                    logError(throwable);
+                    callbackContext.error(throwable.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Evaluates batches of readings, keyed by geodomain, against those geodomains' requirements on the
+     * thread pool. Each geodomain gets either `{success: true, results}`, with results in the order of its
+     * readings, or `{success: false, message}` if it has no agent or the agent hasn't fetched its geodomain yet.
+     */
+    private void evaluateRequirements(final JSONObject readingsByGeodomain, final CallbackContext callbackContext) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    JSONObject results = new JSONObject();
+                    Iterator<String> geodomains = readingsByGeodomain.keys();
+                    while(geodomains.hasNext()) {
+                        final String geodomain = geodomains.next();
+                        results.put(geodomain, runForGeodomain(new GeodomainTask() {
+                            public void run(JSONObject result) throws JSONException {
+                                CordovaDelegate delegate = delegates.get(geodomain);
+                                if(delegate == null) {
+                                    throw new IllegalArgumentException("FencingAgent plugin for Cordova has no agent for geodomain `" +
+                                            geodomain + "`.");
+                                }
+                                WatchedGeodomain watchedGeodomain = delegate.getLatestGeodomain();
+                                if(watchedGeodomain == null) {
+                                    throw new IllegalStateException("The agent for geodomain `" + geodomain +
+                                            "` hasn't fetched its requirements yet.");
+                                }
+                                result.put("results", REQUIREMENT_EVALUATOR.evaluate(watchedGeodomain, readingsByGeodomain.getJSONArray(geodomain)));
+                            }
+                        }));
+                    }
+                    JSONObject responseJSON = new JSONObject();
+                    responseJSON.put("content", results);
+                    callbackContext.success(responseJSON);
+                } catch(Throwable throwable) {
+                    logError(throwable);
+                    callbackContext.error(throwable.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * One geodomain's part of a batch; it may add to the `result` it's given.
+     */
+    private interface GeodomainTask {
+        void run(JSONObject result) throws JSONException;
+    }
+
+    /**
+     * Runs `task`, and answers `{success: true}` with whatever the task added, or `{success: false, message}`
+     * if it threw. One bad geodomain shouldn't stop the rest of the batch.
+     */
+    private static JSONObject runForGeodomain(GeodomainTask task) throws JSONException {
+        JSONObject result = new JSONObject();
+        try {
+            task.run(result);
+            result.put("success", true);
+            return result;
+        } catch(RuntimeException exception) {
+            logError(exception);
+            return failedGeodomain(exception);
+        } catch(JSONException exception) {
+            logError(exception);
+            return failedGeodomain(exception);
+        }
+    }
+
+    /**
+     * {@link #runForGeodomain}, for batches answered from another thread; `null` if even the failure
+     * couldn't be written.
+     */
+    private static JSONObject runForGeodomainOrLog(GeodomainTask task) {
+        try {
+            return runForGeodomain(task);
+        } catch(JSONException exception) {
+            logError(exception);
+            return null;
+        }
+    }
+
+    private static JSONObject failedGeodomain(Exception exception) throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("success", false);
+        result.put("message", exception.getMessage());
+        return result;
+    }
+
+    private void startAgent(FencingAgent<Void> fa, CordovaDelegate delegate) {
+        //A running agent has already sent its live start, so a cached one would only be stale.
+        if(!fa.isRunning()) {
+            delegate.emitCachedStart();
+        }
+        fa.addDelegate(delegate);
+        fa.start();
+    }
+
+    private void purgeAgentCache(FencingAgent<Void> fa, CordovaDelegate delegate) {
+        fa.purgeCache();
+        delegate.requestFullSnapshot();
+        delegate.purgeGeometry();
+        delegate.purgeSnapshot();
+        GEODOMAIN_CACHE.clear();
+        SIMPLIFIED_GEOMETRY_CACHE.clear();
+        REQUIREMENT_EVALUATOR.clear();
+    }
+
     private enum PluginAction {
         QUIT("quit"),
         START("start"),
         PURGE_CACHE("purgeCache"),
         CREATE_AGENT("createAgent"),
-        WATCH_FOR_NEXT_EVENT("nextEvent");
+        RESYNC("resync"),
+        QUEUE_STATS("queueStats"),
+        GET_METRICS("getMetrics"),
+        WATCH_FOR_NEXT_EVENT("nextEvent"),
+        SUBSCRIBE("subscribe"),
+        SET_FIELDS("setFields"),
+        QUERY_CONTAINS("queryContains"),
+        QUERY_WITHIN_RADIUS("queryWithinRadius"),
+        NEAREST_FENCES("nearestFences"),
+        SUBSCRIBE_HUB("subscribeHub", false),
+        START_ALL("startAll", false),
+        QUIT_ALL("quitAll", false),
+        PURGE_CACHE_ALL("purgeCacheAll", false),
+        CREATE_AGENTS("createAgents", false),
+        EVALUATE_REQUIREMENTS("evaluateRequirements", false),
+        START_TRACE("startTrace", false),
+        STOP_TRACE("stopTrace", false),
+        DUMP_TRACE("dumpTrace", false);
 
         private final String actionName;
+        private final boolean targetsAgent;
 
         PluginAction(String actionName) {
+            this(actionName, true);
+        }
+
+        PluginAction(String actionName, boolean targetsAgent) {
             this.actionName = actionName;
+            this.targetsAgent = targetsAgent;
         }
 
         public String getActionName() {
             return this.actionName;
         }
 
+        /**
+         * Whether the action's first argument is the geodomain of an existing agent (or, for `createAgent`, a new one).
+         */
+        public boolean targetsAgent() {
+            return this.targetsAgent;
+        }
+
         public static PluginAction fromName(String actionName) {
             if(actionName == null) {
                 throw new IllegalArgumentException("FencingAgent plugin for Cordova given `null` for an action.");
@@ -201,286 +688,1839 @@ public class FencingAgentPlugin extends CordovaPlugin {
     }
 
     /**
-     * This delegate is meant to keep the Javascript informed.
-     *
-     * It's not possible to call JS from Java, so the closest we can get is to have a javascript function that:
-     * <ol>
-     *     <li>Requests an update about an agent from the Java delegate</li>
-     *     <li>Waits to recieve any of the four delegate messages<li>
-     *     <li>Calls the corresponding callback in the Javascript delegates</li>
-     *     <li>Sends the same request again.</li>
-     * </ol>
+     * Collects the per-geodomain results of a batch from whichever threads finish them, and answers
+     * `{content}` once the last one is in.
      */
-    private class CordovaDelegate implements FencingAgentDelegate<Void> {
-        private LinkedList<JSONObject> responseQueue = new LinkedList<JSONObject>();
-        private boolean waitingForNotification = false;
-        private CallbackContext waitingJavascript = null;
-        private FencingAgent<Void> fa;
+    private static class BatchResults {
+        private final String[] geodomains;
+        private final JSONObject[] results;
+        private final AtomicInteger remaining;
+        private final CallbackContext callbackContext;
 
-        public CordovaDelegate(FencingAgent<Void> fa) {
-            this.fa = fa;
+        public BatchResults(String[] geodomains, CallbackContext callbackContext) {
+            this.geodomains = geodomains;
+            this.results = new JSONObject[geodomains.length];
+            this.remaining = new AtomicInteger(geodomains.length);
+            this.callbackContext = callbackContext;
         }
 
-        public void handleException(RuntimeException exception, AgentState<Void> stateBeforeException) {
-            try {
-                JSONObject messageContent = new JSONObject();
-                messageContent.put("message", exception.getMessage());
-                messageContent.put("stateBeforeError", serializeAgentState(stateBeforeException));
-                handleResponse(createResponse(DelegateMessageType.ON_EXCEPTION, messageContent), false);
-            } catch(JSONException jsone) {
-                logError(jsone);
-                //throw new RuntimeException(jsone);
+        public void record(int index, JSONObject result) {
+            results[index] = result;
+            //The last result in answers for the batch; the decrement publishes every result before it.
+            if(remaining.decrementAndGet() == 0) {
+                respond();
             }
         }
 
-        public void fencesRefreshed(AgentStateUpdate<Void> agentStateUpdate) {
+        public void respond() {
             try {
-                handleResponse(createResponse(DelegateMessageType.ON_FENCE_REFRESH, serializeAgentStateUpdate(agentStateUpdate)), true);
-            } catch(JSONException jsone) {
-                logError(jsone);
-                //throw new RuntimeException(jsone);
+                JSONObject content = new JSONObject();
+                for(int i = 0; i < geodomains.length; i++) {
+                    content.put(geodomains[i], results[i]);
+                }
+                JSONObject responseJSON = new JSONObject();
+                responseJSON.put("content", content);
+                callbackContext.success(responseJSON);
+            } catch(JSONException exception) {
+                logError(exception);
+                callbackContext.error(exception.getMessage());
             }
         }
+    }
 
-        public void onStarted(AgentState<Void> initialState) {
-            try {
-                handleResponse(createResponse(DelegateMessageType.ON_START, serializeAgentState(initialState)), true);
-            } catch(JSONException jsone) {
-                logError(jsone);
-                //throw new RuntimeException(jsone);
+    /**
+     * Plugin-side settings for an agent's delegate, taken from the Javascript `FencingAgentProfile`.
+     */
+    private static class DelegateOptions {
+        private final boolean deltaUpdates;
+        private final int maxQueuedMessages;
+        private final QueuePolicy queuePolicy;
+        private final PointEncoding pointEncoding;
+        private final double simplificationTolerance;
+        private final boolean warmStart;
+
+        public DelegateOptions(boolean deltaUpdates, int maxQueuedMessages, QueuePolicy queuePolicy, PointEncoding pointEncoding,
+                double simplificationTolerance, boolean warmStart) {
+            if(maxQueuedMessages < 1) {
+                throw new IllegalArgumentException("FencingAgent plugin for Cordova given a `maxQueuedMessages` below 1.");
             }
+            this.deltaUpdates = deltaUpdates;
+            this.maxQueuedMessages = maxQueuedMessages;
+            this.queuePolicy = queuePolicy;
+            this.pointEncoding = pointEncoding;
+            this.simplificationTolerance = simplificationTolerance;
+            this.warmStart = warmStart;
         }
 
-        public void onQuit(AgentState<Void> finalState) {
-            try {
-                handleResponse(createResponse(DelegateMessageType.ON_QUIT, serializeAgentState(finalState)), true);
-            } catch(JSONException jsone) {
-                logError(jsone);
-                //throw new RuntimeException(jsone);
-            }
+        public boolean isDeltaUpdates() {
+            return this.deltaUpdates;
         }
 
-        /**
-         * This method is responsible for answering requests for information from Javascript.
-         *
-         * It has two behaviors:
-         * <ol>
-         *     <li>If it already has a few messages that it hasn't communicated yet, it 
-         *     gives the oldest message to Javascript immediately.</li>
-         *     <li>If it doesn't have any messages, it flips a flag inside of the delegate that
-         *     makes it so that the next message from the FA will be relayed immediately.</li>
-         * </ol>
-         */
-        public void notifyJavascript(CallbackContext callbackContext) {
-            System.out.println("MARK notifying callbackContext.");
-            if(responseQueue.size() > 0) {
-                System.out.println("MARK sending success message to javascript.");
-                callbackContext.success(responseQueue.pop());
-            } else {
-                if(getNotificationState() == false) {
-                    System.out.println("MARK waiting for next delegate update from Java");
-                    waitingForNotification = true;
-                    waitingJavascript = callbackContext;
-                } else {
-                    throw new IllegalStateException("A CordovaDelegate was given a Javascript callback when it already had one. " + 
-                            "This is a bug in the Fencing Agent Cordova plugin; please report it to Geofrenzy."
-                    );
-                }
-            }
+        public int getMaxQueuedMessages() {
+            return this.maxQueuedMessages;
+        }
+
+        public QueuePolicy getQueuePolicy() {
+            return this.queuePolicy;
+        }
+
+        public PointEncoding getPointEncoding() {
+            return this.pointEncoding;
         }
 
         /**
-         * This method handles the plumbing details of getting a JSON object to Javascript,
-         * so that the delegate methods can stay focused on their JSON.
+         * In degrees; 0 when fence geometry is sent as it is.
          */
-        private void handleResponse(JSONObject response, boolean successful) {
-            System.out.println("MARK fencing agent sent message to CordovaDelegate");
-            if(getNotificationState()) {
-            System.out.println("CordovaDelegate has waiting JS callback; calling it");
-                if(successful) {
-                    waitingJavascript.success(response);
-                } else {
-                    waitingJavascript.error(response);
-                }
-                waitingJavascript = null;
-                waitingForNotification = false;
-            } else {
-            System.out.println("CordovaDelegate has no JS waiting; adding response to queue");
-                responseQueue.add(response);
-            }
+        public double getSimplificationTolerance() {
+            return this.simplificationTolerance;
         }
 
-        private boolean getNotificationState() {
-            if(waitingForNotification == (waitingJavascript == null)) {
-                throw new IllegalStateException(
-                        "CordovaDelegate's waiting status is inconsistent with its own Javascript tracking." + 
-                        "Please file a bug report with Geofrenzy. This should never happen."
-                );
-            }
-            return waitingForNotification;
+        public boolean isWarmStart() {
+            return this.warmStart;
         }
+    }
 
-        private JSONObject createResponse(DelegateMessageType messageType, JSONObject content) throws JSONException {
-            JSONObject response = new JSONObject();
+    /**
+     * What a delegate does with fence refreshes that Javascript hasn't picked up yet.
+     * Start, quit, and exception messages are always kept, whatever the policy.
+     */
+    private enum QueuePolicy {
+        //A refresh queued right behind another one is merged into it.
+        COALESCE("coalesce"),
+        //Refreshes are kept as they are until the queue is full, then the oldest one is dropped.
+        DROP_OLDEST("dropOldest");
 
-            JSONObject responseMessage = new JSONObject();
-            responseMessage.put("type", messageType.getActionName());
-            responseMessage.put("content", content);
+        private final String policyName;
 
-            response.put("status", serializeAgentStatus(this.fa));
-            response.put("message", responseMessage);
-            return response;
+        QueuePolicy(String policyName) {
+            this.policyName = policyName;
         }
-    }
 
-    private static JSONObject serializeAgentState(AgentState<Void> agentState) throws JSONException {
-        JSONObject serializedState = new JSONObject();
-        if(agentState == null) {
-            return serializedState;
+        public String getPolicyName() {
+            return this.policyName;
         }
 
-        ArrayList<JSONObject> fenceList = new ArrayList<JSONObject>();
-        for(WatchedFence fence : agentState.getFences()) {
-            JSONObject serializedFence = new JSONObject();
-            JSONObject fenceDetails = new JSONObject();
-            JSONObject fenceMetadata = new JSONObject();
-
-            ArrayList<JSONArray> pointList = new ArrayList<JSONArray>();
-            for(Point point : fence.getFence().getPoints()) {
-                pointList.add(serializePoint(point));
+        public static QueuePolicy fromName(String policyName) {
+            if(policyName == null || policyName.isEmpty()) {
+                return COALESCE;
             }
-            JSONArray serializedPoints = new JSONArray(pointList);
-            fenceDetails.put("anchorpoint", serializePoint(fence.getFence().getAnchorPoint()));
-            fenceDetails.put("points", serializedPoints);
-            fenceDetails.put("ttl", fence.getFence().getTtl());
-
-            fenceMetadata.put("status", fence.getStatus().toString());
-            fenceMetadata.put("retrievalTime", fence.getRetrievalTime().toString());
-            ApproachDetails approachDetails = fence.getApproachDetails();
-            if(approachDetails != null) {
-                JSONObject serializedApproachDetails = new JSONObject();
-                serializedApproachDetails.put("isApproaching", approachDetails.isApproaching());
-                serializedApproachDetails.put("reciprocalBearing", approachDetails.getReciprocalBearing());
-                serializedApproachDetails.put("evasiveBearing", approachDetails.getEvasiveBearing());
-                fenceMetadata.put("approachDetails", serializedApproachDetails);
+            for(QueuePolicy policy : QueuePolicy.values()) {
+                if(policyName.equals(policy.getPolicyName())) {
+                    return policy;
+                }
             }
+            throw new IllegalArgumentException(String.format(
+                    "FencingAgent plugin for Cordova recieved unrecognized queue policy `%s`",
+                    policyName
+            ));
+        }
+    }
+
+    /**
+     * How fence points are sent to Javascript.
+     */
+    private enum PointEncoding {
+        //As `[lon, lat]` arrays in the JSON, like every other value.
+        JSON("json"),
+        //As little-endian doubles in one binary buffer per message.
+        FLOAT64("float64"),
+        //As little-endian 32 bit integers in one binary buffer per message, in units of 1e-7 degrees.
+        INT32("int32");
 
-            serializedFence.put("fence", fenceDetails);
-            serializedFence.put("meta", fenceMetadata);
+        private final String encodingName;
 
-            fenceList.add(serializedFence);
+        PointEncoding(String encodingName) {
+            this.encodingName = encodingName;
         }
-        serializedState.put("fences", new JSONArray(fenceList));
-        serializedState.put("geodomain", serializeWatchedGeodomain(agentState.getGeodomain()));
 
-        return serializedState;
+        public String getEncodingName() {
+            return this.encodingName;
+        }
+
+        public static PointEncoding fromName(String encodingName) {
+            if(encodingName == null || encodingName.isEmpty()) {
+                return JSON;
+            }
+            for(PointEncoding encoding : PointEncoding.values()) {
+                if(encodingName.equals(encoding.getEncodingName())) {
+                    return encoding;
+                }
+            }
+            throw new IllegalArgumentException(String.format(
+                    "FencingAgent plugin for Cordova recieved unrecognized point encoding `%s`",
+                    encodingName
+            ));
+        }
     }
 
-    private static JSONObject serializeWatchedGeodomain(WatchedGeodomain watchedGeodomain) throws JSONException {
-        JSONObject serializedWatchedGeodomain = new JSONObject();
-        JSONObject serializedStatus = new JSONObject();
+    /**
+     * The optional parts of an agent state that Javascript delegates can ask to be sent. The rest of a
+     * state (fence anchorpoints, TTLs, statuses, and the geodomain's status) is always sent.
+     */
+    private enum StateField {
+        //Fence points, and their `geometryRef`s.
+        GEOMETRY("geometry", 1),
+        APPROACH_DETAILS("approachDetails", 1 << 1),
+        //The geodomain's requirements.
+        REQUIREMENTS("requirements", 1 << 2);
 
-        serializedStatus.put("status", watchedGeodomain.getGeodomainStatus());
-        serializedStatus.put("retrievalTime", watchedGeodomain.getRetrievalTime());
+        public static final int ALL = (1 << 3) - 1;
 
-        serializedWatchedGeodomain.put("geodomain", serializeGeodomain(watchedGeodomain.raw()));
-        serializedWatchedGeodomain.put("status", serializedStatus);
+        private final String fieldName;
+        private final int bit;
 
-        return serializedWatchedGeodomain;
-    }
-    private static JSONObject serializeGeodomain(Geodomain geodomain) throws JSONException {
-        JSONObject serializedGeodomain = new JSONObject();
+        StateField(String fieldName, int bit) {
+            this.fieldName = fieldName;
+            this.bit = bit;
+        }
 
-        ArrayList<JSONObject> requirementList = new ArrayList<JSONObject>();
-        for(Requirement requirement : geodomain.getRequirements()) {
-            requirementList.add(serializeRequirement(requirement, geodomain.getDomainName()));
+        public String getFieldName() {
+            return this.fieldName;
         }
-        JSONArray serializedRequirements = new JSONArray(requirementList);
 
-        serializedGeodomain.put("requirements", serializedRequirements);
-        serializedGeodomain.put("ttl", geodomain.getTtl());
-        serializedGeodomain.put("domainName", geodomain.getDomainName());
-        serializedGeodomain.put("identifier", geodomain.getIdentifier());
-        return serializedGeodomain;
-    }
+        public boolean isIn(int fields) {
+            return (fields & bit) != 0;
+        }
 
-    private static JSONObject serializeRequirement(Requirement requirement, String geodomain) throws JSONException {
-        JSONObject serializedRequirement = new JSONObject();
-        serializedRequirement.put("baseType", requirement.getBaseType().toString());
-        switch(requirement.getBaseType()) {
-            case COLOR:
-                ColorRequirement colorRequirement = (ColorRequirement) requirement;
-                serializedRequirement.put("red", colorRequirement.getRed());
-                serializedRequirement.put("green", colorRequirement.getGreen());
-                serializedRequirement.put("blue", colorRequirement.getBlue());
-                serializedRequirement.put("alpha", colorRequirement.getAlpha());
-                break;
-            case BOOLEANSET:
-                BooleanSetRequirement boolsetRequirement = (BooleanSetRequirement) requirement;
-                serializedRequirement.put("bool0", boolsetRequirement.isBit0());
-                serializedRequirement.put("bool1", boolsetRequirement.isBit1());
-                serializedRequirement.put("bool2", boolsetRequirement.isBit2());
-                serializedRequirement.put("bool3", boolsetRequirement.isBit3());
-                serializedRequirement.put("bool4", boolsetRequirement.isBit4());
-                serializedRequirement.put("bool5", boolsetRequirement.isBit5());
-                serializedRequirement.put("bool6", boolsetRequirement.isBit6());
-                serializedRequirement.put("bool7", boolsetRequirement.isBit7());
-                serializedRequirement.put("bool8", boolsetRequirement.isBit8());
-                serializedRequirement.put("bool9", boolsetRequirement.isBit9());
-                serializedRequirement.put("bool10", boolsetRequirement.isBit10());
-                serializedRequirement.put("bool11", boolsetRequirement.isBit11());
-                serializedRequirement.put("bool12", boolsetRequirement.isBit12());
-                serializedRequirement.put("bool13", boolsetRequirement.isBit13());
-                serializedRequirement.put("bool14", boolsetRequirement.isBit14());
-                serializedRequirement.put("bool15", boolsetRequirement.isBit15());
-                break;
-            case THRESHOLD:
-                ThresholdRequirement thresholdRequirement = (ThresholdRequirement) requirement;
-                serializedRequirement.put("lowerBound", thresholdRequirement.getLower());
-                serializedRequirement.put("upperBound", thresholdRequirement.getUpper());
-                serializedRequirement.put("unit", thresholdRequirement.getUnit().toString());
-                break;
-            case INTERVAL:
-                IntervalRequirement intervalRequirement = (IntervalRequirement) requirement;
-                serializedRequirement.put("unit", intervalRequirement.getUnit().toString());
-                serializedRequirement.put("initialState", intervalRequirement.getInterval().getInitialState());
-                serializedRequirement.put("floor", intervalRequirement.getInterval().getFloor());
-                serializedRequirement.put("ceiling", intervalRequirement.getInterval().getCeiling());
-                serializedRequirement.put("stateChanges", new JSONArray(intervalRequirement.getInterval().getStateChanges()));
-                break;
-            case PROFILE:
-                ProfileRequirement profileRequirement = (ProfileRequirement) requirement;
-                serializedRequirement.put("value", profileRequirement.getValue());
-                break;
-            case BLOB:
-                throw new BlobRequirementsUnsupportedException(geodomain);
+        /**
+         * The union of several delegates' fields, each being an array of field names.
+         */
+        public static int unionOf(JSONArray fieldLists) throws JSONException {
+            int fields = 0;
+            for(int i = 0; i < fieldLists.length(); i++) {
+                JSONArray fieldNames = fieldLists.getJSONArray(i);
+                for(int j = 0; j < fieldNames.length(); j++) {
+                    fields |= fromName(fieldNames.getString(j)).bit;
+                }
+            }
+            return fields;
         }
-        return serializedRequirement;
-    }
 
-    private static JSONObject serializeAgentStateUpdate(AgentStateUpdate<Void> agentStateUpdate) throws JSONException {
-        JSONObject serializedUpdate = new JSONObject();
-        serializedUpdate.put("oldSnapshot", serializeAgentState(agentStateUpdate.getOldSnapshot()));
-        serializedUpdate.put("newSnapshot", serializeAgentState(agentStateUpdate.getNewSnapshot()));
-        return serializedUpdate;
+        public static StateField fromName(String fieldName) {
+            for(StateField field : StateField.values()) {
+                if(field.getFieldName().equals(fieldName)) {
+                    return field;
+                }
+            }
+            throw new IllegalArgumentException(String.format(
+                    "FencingAgent plugin for Cordova recieved unrecognized state field `%s`",
+                    fieldName
+            ));
+        }
     }
 
-    private static JSONArray serializePoint(Point point) throws JSONException {
-        ArrayList<Double> serializedPoint = new ArrayList<Double>();
-        serializedPoint.add(point.getLongitude());
-        serializedPoint.add(point.getLatitude());
-        return new JSONArray(serializedPoint);
-    }
+    /**
+     * A delegate message that hasn't been serialized yet.
+     *
+     * Messages keep the raw agent states until they are sent, so queued refreshes can still be merged,
+     * and nothing gets serialized for a message that ends up dropped.
+     */
+    private static class PendingMessage implements MessageQueue.Message<PendingMessage> {
+        private final DelegateMessageType messageType;
+        private AgentState<Void> oldSnapshot;
+        private AgentState<Void> state;
+        private final String exceptionMessage;
+        private AgentStatus agentStatus;
+        //State JSON saved by an earlier run: the state itself for a cached start, and the old snapshot
+        //for the refresh that replaces it with the live state.
+        private final String cachedSnapshot;
+        //When the SDK handed this message off, from `System.nanoTime()`.
+        private final long handedOffAt = System.nanoTime();
 
-    private static JSONObject serializeAgentStatus(FencingAgent<Void> fa) throws JSONException {
-        JSONObject serializedAgentStatus = new JSONObject();
-        try {
-            serializedAgentStatus.put("isRunning", fa.isRunning());
-            serializedAgentStatus.put("geodomain", fa.getRawGeodomain().getDomainName());
-        } catch(NullPointerException npe) {
-            return serializedAgentStatus;
+        public PendingMessage(DelegateMessageType messageType, AgentState<Void> oldSnapshot, AgentState<Void> state,
+                String exceptionMessage, AgentStatus agentStatus) {
+            this(messageType, oldSnapshot, state, exceptionMessage, agentStatus, null);
+        }
+
+        public PendingMessage(DelegateMessageType messageType, AgentState<Void> oldSnapshot, AgentState<Void> state,
+                String exceptionMessage, AgentStatus agentStatus, String cachedSnapshot) {
+            this.messageType = messageType;
+            this.oldSnapshot = oldSnapshot;
+            this.state = state;
+            this.exceptionMessage = exceptionMessage;
+            this.agentStatus = agentStatus;
+            this.cachedSnapshot = cachedSnapshot;
         }
-        return serializedAgentStatus;
+
+        public DelegateMessageType getMessageType() {
+            return this.messageType;
+        }
+
+        public boolean isSuccessful() {
+            return this.messageType != DelegateMessageType.ON_EXCEPTION;
+        }
+
+        public boolean isRefresh() {
+            return this.messageType == DelegateMessageType.ON_FENCE_REFRESH;
+        }
+
+        /**
+         * Folds a later refresh into this one, so that this one goes from its own old snapshot
+         * to the later one's new snapshot. It keeps its own hand-off time, since that's how long
+         * the oldest news in it has been waiting.
+         */
+        public void absorb(PendingMessage laterRefresh) {
+            this.state = laterRefresh.state;
+            this.agentStatus = laterRefresh.agentStatus;
+        }
+    }
+
+    /**
+     * This delegate is meant to keep the Javascript informed.
+     *
+     * It's not possible to call JS from Java, so the closest we can get is to have a javascript function that:
+     * <ol>
+     *     <li>Requests an update about an agent from the Java delegate</li>
+     *     <li>Waits to recieve any of the four delegate messages<li>
+     *     <li>Calls the corresponding callback in the Javascript delegates</li>
+     *     <li>Sends the same request again.</li>
+     * </ol>
+     *
+     * Javascript can also subscribe instead, which keeps a single callback open; messages are then pushed
+     * to it as they arrive, always as an array, so that anything that was queued before subscribing goes
+     * out in one batch.
+     *
+     * Messages wait in a bounded {@link MessageQueue} while Javascript isn't listening, and are only serialized
+     * on the way out. How refreshes are trimmed once the queue fills up is set by the agent's {@link QueuePolicy}.
+     *
+     * The agent's delegate callbacks arrive on SDK threads, and requests from Javascript on the bridge thread;
+     * neither does more than hand off through {@link #inbox} or an atomic callback slot and schedule a drain.
+     * The drain runs on Cordova's thread pool, one at a time per delegate, and is the only thing that touches
+     * the queue or serializes anything, so none of that state needs locking.
+     *
+     * The delegate also remembers the agent's latest state, whether or not Javascript has been sent it yet,
+     * and indexes its fences for spatial queries the first time one is asked after a refresh.
+     *
+     * With warm starts enabled, the delegate saves the agent's state to {@link SnapshotStore} now and then.
+     * The next time the agent starts, that state goes out right away as a start marked `cached`, and the
+     * live start that follows is sent as a refresh from the cached state to the live one.
+     *
+     * Once {@link AgentHub} has a subscriber, every message goes to the hub instead, tagged with this
+     * delegate's geodomain, and this delegate's own callbacks are left alone.
+     *
+     * Messages only carry the {@link StateField}s that at least one of the agent's Javascript delegates uses.
+     *
+     * While the WebView is paused, fence refreshes aren't queued at all; on resume, they go out as one
+     * refresh from the state before the first of them to the latest.
+     *
+     * When created with delta updates enabled, fence refreshes only carry the fences that were added,
+     * removed, or changed since the last refresh this delegate sent, and Javascript rebuilds the full
+     * states from its copy of the previous one.
+     */
+    private class CordovaDelegate implements FencingAgentDelegate<Void> {
+        private final ConcurrentLinkedQueue<PendingMessage> inbox = new ConcurrentLinkedQueue<PendingMessage>();
+        private final AtomicReference<CallbackContext> waitingJavascript = new AtomicReference<CallbackContext>();
+        private final AtomicReference<CallbackContext> subscribedJavascript = new AtomicReference<CallbackContext>();
+        private final AtomicBoolean draining = new AtomicBoolean(false);
+        private final AtomicBoolean fullSnapshotRequested = new AtomicBoolean(false);
+        private final AtomicBoolean geometryPurgeRequested = new AtomicBoolean(false);
+        private final AtomicInteger queueDepth = new AtomicInteger(0);
+        private final AtomicLong droppedMessages = new AtomicLong(0);
+        private final AtomicLong coalescedMessages = new AtomicLong(0);
+        private final DelegateMetrics metrics = new DelegateMetrics();
+        private final AtomicReference<AgentState<Void>> latestState = new AtomicReference<AgentState<Void>>();
+        //Guarded by `warmStartLock`. The cached state Javascript was sent on start, until the live start
+        //replaces it, and which call to `emitCachedStart` is still allowed to send one.
+        private final Object warmStartLock = new Object();
+        private String provisionalSnapshot = null;
+        private int warmStartGeneration = 0;
+        private boolean awaitingLiveStart = false;
+        private final AtomicLong lastSnapshotSave = new AtomicLong(0);
+        //Guarded by `pauseLock`. While paused, refreshes only leave the state from before the first of them.
+        private final Object pauseLock = new Object();
+        private boolean paused = false;
+        private boolean refreshedWhilePaused = false;
+        private AgentState<Void> stateBeforePause = null;
+        //The {@link StateField}s Javascript's delegates use; the rest are left out of messages.
+        private volatile int fields = StateField.ALL;
+        private FencingAgent<Void> fa;
+        private final String geodomain;
+        private final DelegateOptions options;
+
+        //Only touched while draining.
+        private final MessageQueue<PendingMessage> responseQueue;
+        //Fence signatures from the last refresh that was sent, by fence key; `null` until a full snapshot goes out.
+        private HashMap<String, String> sentFenceSignatures = null;
+        private int sequence = 0;
+        private final GeometryCache geometryCache;
+        private final JsonStreamWriter messageWriter = new JsonStreamWriter();
+        private final JsonStreamWriter batchWriter = new JsonStreamWriter();
+        //`null` unless points are sent in binary.
+        private final CoordinateBuffer coordinates;
+
+        //Guarded by `fenceIndexLock`.
+        private final Object fenceIndexLock = new Object();
+        private FenceIndex fenceIndex = null;
+        private AgentState<Void> indexedState = null;
+        //The outlines in `fenceIndex`, by geometry key, so a rebuild only converts the fences that changed.
+        private HashMap<String, FenceIndex.Geometry> indexedGeometries = new HashMap<String, FenceIndex.Geometry>();
+
+        private final Runnable drainTask = new Runnable() {
+            public void run() {
+                do {
+                    try {
+                        drain();
+                    } catch(Throwable throwable) {
+                        metrics.recordCallbackError();
+                        logError(throwable);
+                    }
+                    draining.set(false);
+                    //Anything handed off after the last look at it has to be picked up by someone.
+                } while(hasWork() && draining.compareAndSet(false, true));
+            }
+        };
+
+        public CordovaDelegate(FencingAgent<Void> fa, String geodomain, DelegateOptions options) {
+            this.fa = fa;
+            this.geodomain = geodomain;
+            this.options = options;
+            this.geometryCache = new GeometryCache(options.getSimplificationTolerance());
+            this.responseQueue = new MessageQueue<PendingMessage>(options.getMaxQueuedMessages(),
+                    options.getQueuePolicy() == QueuePolicy.COALESCE);
+            this.coordinates = options.getPointEncoding() == PointEncoding.JSON ?
+                    null :
+                    new CoordinateBuffer(options.getPointEncoding());
+        }
+
+        public void handleException(RuntimeException exception, AgentState<Void> stateBeforeException) {
+            sendPausedRefresh();
+            handleMessage(new PendingMessage(DelegateMessageType.ON_EXCEPTION, null, stateBeforeException,
+                    exception.getMessage(), AgentStatus.of(fa)));
+        }
+
+        public void fencesRefreshed(AgentStateUpdate<Void> agentStateUpdate) {
+            synchronized(pauseLock) {
+                if(paused) {
+                    if(!refreshedWhilePaused) {
+                        refreshedWhilePaused = true;
+                        stateBeforePause = agentStateUpdate.getOldSnapshot();
+                    }
+                    latestState.set(agentStateUpdate.getNewSnapshot());
+                    metrics.recordEvent(DelegateMessageType.ON_FENCE_REFRESH);
+                    return;
+                }
+            }
+            latestState.set(agentStateUpdate.getNewSnapshot());
+            saveSnapshot(false);
+            handleMessage(new PendingMessage(DelegateMessageType.ON_FENCE_REFRESH, agentStateUpdate.getOldSnapshot(),
+                    agentStateUpdate.getNewSnapshot(), null, AgentStatus.of(fa)));
+        }
+
+        public void onStarted(AgentState<Void> initialState) {
+            sendPausedRefresh();
+            latestState.set(initialState);
+            saveSnapshot(false);
+            String provisional;
+            synchronized(warmStartLock) {
+                awaitingLiveStart = false;
+                provisional = provisionalSnapshot;
+                provisionalSnapshot = null;
+            }
+            if(provisional != null) {
+                handleMessage(new PendingMessage(DelegateMessageType.ON_FENCE_REFRESH, null, initialState, null,
+                        AgentStatus.of(fa), provisional));
+                return;
+            }
+            handleMessage(new PendingMessage(DelegateMessageType.ON_START, null, initialState, null, AgentStatus.of(fa)));
+        }
+
+        public void onQuit(AgentState<Void> finalState) {
+            sendPausedRefresh();
+            latestState.set(finalState);
+            forgetProvisionalSnapshot();
+            saveSnapshot(true);
+            handleMessage(new PendingMessage(DelegateMessageType.ON_QUIT, null, finalState, null, AgentStatus.of(fa)));
+        }
+
+        /**
+         * Saves the latest state right away, in case the app is killed while it's in the background.
+         */
+        public void pause() {
+            synchronized(pauseLock) {
+                paused = true;
+            }
+            saveSnapshot(true);
+        }
+
+        public void resume() {
+            synchronized(pauseLock) {
+                paused = false;
+                sendPausedRefresh();
+            }
+        }
+
+        /**
+         * Sends the refreshes that came in while paused as one, from the state before the first of them
+         * to the latest. Other messages send it first, so that they don't overtake it.
+         */
+        private void sendPausedRefresh() {
+            synchronized(pauseLock) {
+                if(!refreshedWhilePaused) {
+                    return;
+                }
+                AgentState<Void> oldSnapshot = stateBeforePause;
+                refreshedWhilePaused = false;
+                stateBeforePause = null;
+                saveSnapshot(false);
+                handleMessage(new PendingMessage(DelegateMessageType.ON_FENCE_REFRESH, oldSnapshot, latestState.get(), null,
+                        AgentStatus.of(fa)), false);
+            }
+        }
+
+        /**
+         * If warm starts are enabled and a saved state is still within its TTL, sends it to Javascript
+         * as a start marked `cached`. The snapshot is read on the thread pool, and dropped if the live
+         * start beats it there.
+         */
+        public void emitCachedStart() {
+            if(!options.isWarmStart() || snapshotStore == null) {
+                return;
+            }
+            final int generation;
+            synchronized(warmStartLock) {
+                generation = ++warmStartGeneration;
+                awaitingLiveStart = true;
+            }
+            cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    String cached = snapshotStore.read(geodomain);
+                    if(cached == null) {
+                        return;
+                    }
+                    //Queued while holding the lock, so that the live start can't be queued ahead of it.
+                    synchronized(warmStartLock) {
+                        if(!awaitingLiveStart || generation != warmStartGeneration) {
+                            return;
+                        }
+                        provisionalSnapshot = cached;
+                        handleMessage(new PendingMessage(DelegateMessageType.ON_START, null, null, null,
+                                AgentStatus.of(fa).asCached(), cached));
+                    }
+                }
+            });
+        }
+
+        private void forgetProvisionalSnapshot() {
+            synchronized(warmStartLock) {
+                awaitingLiveStart = false;
+                provisionalSnapshot = null;
+            }
+        }
+
+        public void purgeSnapshot() {
+            forgetProvisionalSnapshot();
+            if(snapshotStore != null) {
+                snapshotStore.delete(geodomain);
+            }
+        }
+
+        /**
+         * Saves the latest state on the thread pool, at most once per `SNAPSHOT_SAVE_INTERVAL_MILLIS`
+         * unless `immediately` is set.
+         */
+        private void saveSnapshot(boolean immediately) {
+            if(!options.isWarmStart() || snapshotStore == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long lastSave = lastSnapshotSave.get();
+            if(!immediately && now - lastSave < SNAPSHOT_SAVE_INTERVAL_MILLIS) {
+                return;
+            }
+            if(!lastSnapshotSave.compareAndSet(lastSave, now) && !immediately) {
+                return;
+            }
+            cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    AgentState<Void> state = latestState.get();
+                    if(state == null) {
+                        return;
+                    }
+                    try {
+                        JsonStreamWriter snapshotWriter = new JsonStreamWriter();
+                        writeSnapshotState(snapshotWriter, state, geometryCache);
+                        snapshotStore.write(geodomain, snapshotWriter.toString(), snapshotExpiration(state));
+                    } catch(IOException exception) {
+                        logError(exception);
+                    } catch(RuntimeException exception) {
+                        logError(exception);
+                    }
+                }
+            });
+        }
+
+        /**
+         * The geodomain as of the agent's latest state, or `null` if it hasn't started yet.
+         */
+        public WatchedGeodomain getLatestGeodomain() {
+            AgentState<Void> state = latestState.get();
+            return state == null ? null : state.getGeodomain();
+        }
+
+        /**
+         * Makes the next fence refresh carry every fence instead of a delta. Javascript asks for
+         * this when the sequence numbers it recieves stop lining up with the ones it has seen.
+         */
+        public void requestFullSnapshot() {
+            fullSnapshotRequested.set(true);
+        }
+
+        /**
+         * Changing the fields starts the next refresh over from a full snapshot, with points again if
+         * they're wanted, since what Javascript has been sent so far was missing or had other fields.
+         */
+        public void setFields(int fields) {
+            if(this.fields != fields) {
+                this.fields = fields;
+                requestFullSnapshot();
+                purgeGeometry();
+            }
+        }
+
+        /**
+         * Forgets every geometry Javascript has been sent, so that the next message carries points again.
+         */
+        public void purgeGeometry() {
+            geometryPurgeRequested.set(true);
+        }
+
+        /**
+         * An index of the agent's latest fences, rebuilt if they have refreshed since the last query.
+         * Before the agent has started, it's empty.
+         */
+        public FenceIndex currentFenceIndex() {
+            synchronized(fenceIndexLock) {
+                AgentState<Void> state = latestState.get();
+                if(fenceIndex != null && state == indexedState) {
+                    return fenceIndex;
+                }
+                FenceIndex.Builder builder = new FenceIndex.Builder();
+                HashMap<String, FenceIndex.Geometry> geometries = new HashMap<String, FenceIndex.Geometry>();
+                if(state != null) {
+                    HashMap<String, Integer> seenAnchors = new HashMap<String, Integer>();
+                    for(WatchedFence fence : state.getFences()) {
+                        String geometryKey = GeometryCache.keyOf(fence);
+                        FenceIndex.Geometry geometry = indexedGeometries.get(geometryKey);
+                        if(geometry == null) {
+                            geometry = geometries.get(geometryKey);
+                        }
+                        if(geometry == null) {
+                            List<Point> points = fence.getFence().getPoints();
+                            double[] coordinates = new double[2 * points.size()];
+                            int i = 0;
+                            for(Point point : points) {
+                                coordinates[i++] = point.getLongitude();
+                                coordinates[i++] = point.getLatitude();
+                            }
+                            geometry = new FenceIndex.Geometry(coordinates);
+                        }
+                        geometries.put(geometryKey, geometry);
+                        Point anchorPoint = fence.getFence().getAnchorPoint();
+                        builder.add(fenceKey(fence, seenAnchors), fence.getStatus().toString(),
+                                anchorPoint.getLongitude(), anchorPoint.getLatitude(), geometry);
+                    }
+                }
+                fenceIndex = builder.build();
+                indexedState = state;
+                indexedGeometries = geometries;
+                return fenceIndex;
+            }
+        }
+
+        public JSONObject serializeMetrics() throws JSONException {
+            return metrics.serialize(queueDepth.get());
+        }
+
+        public JSONObject serializeQueueStats() throws JSONException {
+            JSONObject serializedStats = new JSONObject();
+            serializedStats.put("depth", queueDepth.get());
+            serializedStats.put("maxQueuedMessages", options.getMaxQueuedMessages());
+            serializedStats.put("queuePolicy", options.getQueuePolicy().getPolicyName());
+            serializedStats.put("dropped", droppedMessages.get());
+            serializedStats.put("coalesced", coalescedMessages.get());
+            return serializedStats;
+        }
+
+        /**
+         * Writes only what changed between the last refresh this delegate sent and the new snapshot.
+         *
+         * A delta refers to the refresh before it through `baseSequence`. A full delta has a `baseSequence`
+         * of -1, lists every fence as added, and also carries the old snapshot, so that Javascript can
+         * start over from it; that's `cachedOldSnapshot` as it is, when it isn't `null`.
+         */
+        private void writeAgentStateDelta(JsonStreamWriter writer, AgentState<Void> oldSnapshot, AgentState<Void> newSnapshot,
+                String cachedOldSnapshot, int fields) {
+            boolean full = sentFenceSignatures == null;
+            boolean withGeometry = StateField.GEOMETRY.isIn(fields);
+
+            List<WatchedFence> fences = newSnapshot.getFences();
+            int fenceCount = fences.size();
+            String[] fenceKeys = new String[fenceCount];
+            int[] geometryRefs = new int[fenceCount];
+            String[] geometryKeys = new String[fenceCount];
+            boolean[] sendPoints = new boolean[fenceCount];
+            boolean[] added = new boolean[fenceCount];
+            boolean[] changed = new boolean[fenceCount];
+            HashMap<String, String> fenceSignatures = new HashMap<String, String>();
+            HashMap<String, Integer> seenAnchors = new HashMap<String, Integer>();
+
+            for(int i = 0; i < fenceCount; i++) {
+                WatchedFence fence = fences.get(i);
+                fenceKeys[i] = fenceKey(fence, seenAnchors);
+                if(withGeometry) {
+                    geometryKeys[i] = GeometryCache.keyOf(fence);
+                    Integer geometryRef = geometryCache.lookup(geometryKeys[i]);
+                    sendPoints[i] = geometryRef == null;
+                    if(sendPoints[i]) {
+                        geometryRef = geometryCache.add(geometryKeys[i], fence.getFence().getTtl());
+                    }
+                    geometryRefs[i] = geometryRef;
+                } else {
+                    geometryRefs[i] = NO_GEOMETRY_REF;
+                }
+
+                String signature = fenceSignature(fence, geometryRefs[i], fields);
+                fenceSignatures.put(fenceKeys[i], signature);
+                String sentSignature = full ? null : sentFenceSignatures.get(fenceKeys[i]);
+                added[i] = sentSignature == null;
+                changed[i] = !added[i] && !sentSignature.equals(signature);
+            }
+
+            writer.beginObject();
+            writer.name("delta").beginObject();
+            if(full) {
+                writer.name("oldSnapshot");
+                if(cachedOldSnapshot != null) {
+                    writer.rawValue(cachedOldSnapshot);
+                } else {
+                    writeAgentState(writer, oldSnapshot, geometryCache, coordinates, fields);
+                }
+            }
+            writer.name("baseSequence").value(full ? -1 : sequence);
+            sequence++;
+            writer.name("sequence").value(sequence);
+            writer.name("fenceKeys").beginArray();
+            for(int i = 0; i < fenceCount; i++) {
+                writer.value(fenceKeys[i]);
+            }
+            writer.endArray();
+            writer.name("added").beginArray();
+            for(int i = 0; i < fenceCount; i++) {
+                if(added[i]) {
+                    writeWatchedFence(writer, fences.get(i), geometryRefs[i],
+                            sendPoints[i] ? geometryCache.pointsToSend(fences.get(i), geometryKeys[i]) : null, fenceKeys[i], coordinates,
+                            fields);
+                }
+            }
+            writer.endArray();
+            writer.name("changed").beginArray();
+            for(int i = 0; i < fenceCount; i++) {
+                if(changed[i]) {
+                    writeWatchedFence(writer, fences.get(i), geometryRefs[i],
+                            sendPoints[i] ? geometryCache.pointsToSend(fences.get(i), geometryKeys[i]) : null, fenceKeys[i], coordinates,
+                            fields);
+                }
+            }
+            writer.endArray();
+            writer.name("removed").beginArray();
+            if(!full) {
+                for(String sentKey : sentFenceSignatures.keySet()) {
+                    if(!fenceSignatures.containsKey(sentKey)) {
+                        writer.value(sentKey);
+                    }
+                }
+            }
+            writer.endArray();
+            writer.name("geodomain");
+            writeWatchedGeodomain(writer, newSnapshot.getGeodomain(), fields);
+            writer.endObject();
+            writer.endObject();
+            sentFenceSignatures = fenceSignatures;
+        }
+
+        /**
+         * This method is responsible for answering requests for information from Javascript.
+         *
+         * It has two behaviors:
+         * <ol>
+         *     <li>If it already has a few messages that it hasn't communicated yet, the oldest
+         *     one is given to Javascript as soon as the drain gets to it.</li>
+         *     <li>If it doesn't have any messages, the callback waits in the delegate, so that
+         *     the next message from the FA will be relayed immediately.</li>
+         * </ol>
+         */
+        public void notifyJavascript(CallbackContext callbackContext) {
+            if(!waitingJavascript.compareAndSet(null, callbackContext)) {
+                throw new IllegalStateException("A CordovaDelegate was given a Javascript callback when it already had one. " + 
+                        "This is a bug in the Fencing Agent Cordova plugin; please report it to Geofrenzy."
+                );
+            }
+            scheduleDrain();
+        }
+
+        /**
+         * Keeps `callbackContext` open and sends it every message from now on, starting with a single batch
+         * of whatever is already queued. A later subscription replaces this one.
+         */
+        public void subscribeJavascript(CallbackContext callbackContext) {
+            subscribedJavascript.set(callbackContext);
+            scheduleDrain();
+        }
+
+        /**
+         * This method handles the plumbing details of getting a message to Javascript,
+         * so that the delegate methods can stay focused on their states.
+         */
+        private void handleMessage(PendingMessage pendingMessage) {
+            handleMessage(pendingMessage, true);
+        }
+
+        /**
+         * `countEvent` is only unset for the refresh sent on resume, whose refreshes were counted as they came in.
+         */
+        private void handleMessage(PendingMessage pendingMessage, boolean countEvent) {
+            if(countEvent) {
+                metrics.recordEvent(pendingMessage.getMessageType());
+            }
+            trace.record(TraceRecorder.KIND_EVENT, pendingMessage.getMessageType().getActionName(), geodomain, queueDepth.get());
+            inbox.add(pendingMessage);
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if(draining.compareAndSet(false, true)) {
+                cordova.getThreadPool().execute(drainTask);
+            }
+        }
+
+        private boolean hasWork() {
+            return !inbox.isEmpty() || (queueDepth.get() > 0 &&
+                    (hub.isSubscribed() || subscribedJavascript.get() != null || waitingJavascript.get() != null));
+        }
+
+        /**
+         * Moves everything handed off so far into the queue, then sends as much of the queue
+         * as there are callbacks waiting for.
+         */
+        private void drain() {
+            PendingMessage pendingMessage;
+            while((pendingMessage = inbox.poll()) != null) {
+                enqueue(pendingMessage);
+            }
+
+            while(!responseQueue.isEmpty()) {
+                if(hub.isSubscribed()) {
+                    while(!responseQueue.isEmpty()) {
+                        if(serialize(dequeue(), true)) {
+                            hub.handOff(messageWriter.toString());
+                        }
+                    }
+                    hub.scheduleDrain();
+                    return;
+                }
+
+                CallbackContext subscriber = subscribedJavascript.get();
+                if(subscriber != null) {
+                    int batchSize = 0;
+                    batchWriter.reset().beginArray();
+                    while(!responseQueue.isEmpty()) {
+                        if(serialize(dequeue(), false)) {
+                            batchWriter.rawValue(messageWriter.contents());
+                            batchSize++;
+                        }
+                    }
+                    batchWriter.endArray();
+                    if(batchSize > 0) {
+                        PluginResult result = new RawJsonPluginResult(PluginResult.Status.OK, batchWriter.toString());
+                        result.setKeepCallback(true);
+                        subscriber.sendPluginResult(result);
+                    }
+                    return;
+                }
+
+                CallbackContext waiting = waitingJavascript.getAndSet(null);
+                if(waiting == null) {
+                    return;
+                }
+                boolean written = false;
+                while(!written && !responseQueue.isEmpty()) {
+                    pendingMessage = dequeue();
+                    written = serialize(pendingMessage, false);
+                }
+                if(!written) {
+                    waitingJavascript.compareAndSet(null, waiting);
+                    return;
+                }
+                waiting.sendPluginResult(new RawJsonPluginResult(
+                        pendingMessage.isSuccessful() ? PluginResult.Status.OK : PluginResult.Status.ERROR,
+                        messageWriter.toString()
+                        ));
+            }
+        }
+
+        private PendingMessage dequeue() {
+            queueDepth.decrementAndGet();
+            return responseQueue.poll();
+        }
+
+        private void enqueue(PendingMessage pendingMessage) {
+            switch(responseQueue.add(pendingMessage)) {
+                case COALESCED:
+                    coalescedMessages.incrementAndGet();
+                    trace.record(TraceRecorder.KIND_COALESCED, pendingMessage.getMessageType().getActionName(), geodomain, queueDepth.get());
+                    break;
+                case QUEUED_AND_DROPPED:
+                    metrics.recordQueueDepth(queueDepth.incrementAndGet());
+                    queueDepth.decrementAndGet();
+                    droppedMessages.incrementAndGet();
+                    trace.record(TraceRecorder.KIND_DROPPED, DelegateMessageType.ON_FENCE_REFRESH.getActionName(), geodomain,
+                            queueDepth.get());
+                    break;
+                default:
+                    metrics.recordQueueDepth(queueDepth.incrementAndGet());
+                    break;
+            }
+        }
+
+        /**
+         * Writes `pendingMessage` into {@link #messageWriter}, and records how long that took and how long
+         * the message waited before it. Returns `false` if the message couldn't be serialized.
+         */
+        private boolean serialize(PendingMessage pendingMessage, boolean tagGeodomain) {
+            long startedAt = System.nanoTime();
+            boolean written = writeMessage(messageWriter.reset(), pendingMessage, tagGeodomain);
+            long finishedAt = System.nanoTime();
+            if(written) {
+                metrics.recordSerialization(finishedAt - startedAt, messageWriter.length());
+                metrics.recordLatency(finishedAt - pendingMessage.handedOffAt);
+                trace.record(TraceRecorder.KIND_DELIVERED, pendingMessage.getMessageType().getActionName(), geodomain, queueDepth.get());
+            } else {
+                metrics.recordSerializationFailure();
+            }
+            return written;
+        }
+
+        /**
+         * Writes a whole response for `pendingMessage` into `writer`, with this delegate's geodomain
+         * at the top if `tagGeodomain` is set.
+         * Returns `false`, after logging, if the message couldn't be serialized.
+         */
+        private boolean writeMessage(JsonStreamWriter writer, PendingMessage pendingMessage, boolean tagGeodomain) {
+            if(fullSnapshotRequested.getAndSet(false)) {
+                sentFenceSignatures = null;
+            }
+            if(geometryPurgeRequested.getAndSet(false)) {
+                geometryCache.clear();
+            }
+            if(coordinates != null) {
+                coordinates.reset();
+            }
+            //Read once, so that the whole message has the same fields.
+            int fields = this.fields;
+            try {
+                writer.beginObject();
+                if(tagGeodomain) {
+                    writer.name("geodomain").value(geodomain);
+                }
+                writer.name("status");
+                pendingMessage.agentStatus.write(writer);
+                writer.name("message").beginObject();
+                writer.name("type").value(pendingMessage.getMessageType().getActionName());
+                writer.name("content");
+                switch(pendingMessage.getMessageType()) {
+                    case ON_FENCE_REFRESH:
+                        if(options.isDeltaUpdates()) {
+                            writeAgentStateDelta(writer, pendingMessage.oldSnapshot, pendingMessage.state, pendingMessage.cachedSnapshot,
+                                    fields);
+                        } else {
+                            writeAgentStateUpdate(writer, pendingMessage.oldSnapshot, pendingMessage.state, pendingMessage.cachedSnapshot,
+                                    geometryCache, coordinates, fields);
+                        }
+                        break;
+                    case ON_EXCEPTION:
+                        writer.beginObject();
+                        if(pendingMessage.exceptionMessage != null) {
+                            writer.name("message").value(pendingMessage.exceptionMessage);
+                        }
+                        writer.name("stateBeforeError");
+                        writeAgentState(writer, pendingMessage.state, geometryCache, coordinates, fields);
+                        writer.endObject();
+                        break;
+                    default:
+                        if(pendingMessage.state == null && pendingMessage.cachedSnapshot != null) {
+                            writer.rawValue(pendingMessage.cachedSnapshot);
+                        } else {
+                            writeAgentState(writer, pendingMessage.state, geometryCache, coordinates, fields);
+                        }
+                        break;
+                }
+                writer.endObject();
+                if(coordinates != null && coordinates.getPointCount() > 0) {
+                    writer.name("coordinates");
+                    coordinates.write(writer);
+                }
+                writer.endObject();
+                geometryCache.retainTouched();
+                return true;
+            } catch(RuntimeException exception) {
+                logError(exception);
+                //Geometries this message added may never reach Javascript, and the delta baseline may be half-updated.
+                geometryCache.clear();
+                sentFenceSignatures = null;
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Merges the messages of every agent into one stream, so that Javascript keeps a single callback open
+     * for all of its geodomains instead of one per agent.
+     *
+     * Delegates hand off their messages already serialized and tagged with their geodomain; the hub only
+     * splices whatever has piled up into one array and sends it. Messages go out in the order they were
+     * handed off, which keeps each agent's own messages in order. Like a delegate, the hub drains on
+     * Cordova's thread pool, one drain at a time.
+     */
+    private class AgentHub {
+        private final ConcurrentLinkedQueue<String> inbox = new ConcurrentLinkedQueue<String>();
+        private final AtomicReference<CallbackContext> subscribedJavascript = new AtomicReference<CallbackContext>();
+        private final AtomicBoolean draining = new AtomicBoolean(false);
+
+        //Only touched while draining.
+        private final JsonStreamWriter batchWriter = new JsonStreamWriter();
+
+        private final Runnable drainTask = new Runnable() {
+            public void run() {
+                do {
+                    try {
+                        drain();
+                    } catch(Throwable throwable) {
+                        logError(throwable);
+                    }
+                    draining.set(false);
+                } while(!inbox.isEmpty() && draining.compareAndSet(false, true));
+            }
+        };
+
+        public boolean isSubscribed() {
+            return subscribedJavascript.get() != null;
+        }
+
+        /**
+         * Keeps `callbackContext` open and sends it the messages of every agent from now on. Each delegate
+         * is nudged, so that whatever it had queued goes out through the hub. A later subscription replaces this one.
+         */
+        public void subscribe(CallbackContext callbackContext) {
+            subscribedJavascript.set(callbackContext);
+            for(CordovaDelegate delegate : delegates.values()) {
+                delegate.scheduleDrain();
+            }
+        }
+
+        public void handOff(String message) {
+            inbox.add(message);
+        }
+
+        public void scheduleDrain() {
+            if(draining.compareAndSet(false, true)) {
+                cordova.getThreadPool().execute(drainTask);
+            }
+        }
+
+        private void drain() {
+            CallbackContext subscriber = subscribedJavascript.get();
+            if(subscriber == null) {
+                //Unreachable while subscriptions are never withdrawn; don't lose the messages if they ever are.
+                return;
+            }
+            int batchSize = 0;
+            batchWriter.reset().beginArray();
+            String message;
+            while((message = inbox.poll()) != null) {
+                batchWriter.rawValue(message);
+                batchSize++;
+            }
+            batchWriter.endArray();
+            if(batchSize > 0) {
+                PluginResult result = new RawJsonPluginResult(PluginResult.Status.OK, batchWriter.toString());
+                result.setKeepCallback(true);
+                subscriber.sendPluginResult(result);
+            }
+        }
+    }
+
+    /**
+     * Only the {@link StateField}s in `fields` are written.
+     */
+    private static void writeAgentState(JsonStreamWriter writer, AgentState<Void> agentState, GeometryCache geometryCache,
+            CoordinateBuffer coordinates, int fields) {
+        writer.beginObject();
+        if(agentState == null) {
+            writer.endObject();
+            return;
+        }
+
+        writer.name("fences").beginArray();
+        for(WatchedFence fence : agentState.getFences()) {
+            if(!StateField.GEOMETRY.isIn(fields)) {
+                writeWatchedFence(writer, fence, NO_GEOMETRY_REF, null, null, coordinates, fields);
+                continue;
+            }
+            String geometryKey = GeometryCache.keyOf(fence);
+            Integer geometryRef = geometryCache.lookup(geometryKey);
+            boolean sendPoints = geometryRef == null;
+            if(sendPoints) {
+                geometryRef = geometryCache.add(geometryKey, fence.getFence().getTtl());
+            }
+            writeWatchedFence(writer, fence, geometryRef, sendPoints ? geometryCache.pointsToSend(fence, geometryKey) : null,
+                    null, coordinates, fields);
+        }
+        writer.endArray();
+        writer.name("geodomain");
+        writeWatchedGeodomain(writer, agentState.getGeodomain(), fields);
+
+        writer.endObject();
+    }
+
+    /**
+     * Points are only written the first time a geometry is sent; after that the fence only carries
+     * the `geometryRef` that Javascript cached them under, and `points` is `null`. `key` is left out
+     * when it's `null`, and `geometryRef` when it's {@link #NO_GEOMETRY_REF}.
+     *
+     * When `coordinates` isn't `null`, points go into it instead of the JSON, and the fence only
+     * records where its points start in it and how many there are.
+     *
+     * Approach details are only written if they're in `fields`; geometry is up to the caller.
+     */
+    private static void writeWatchedFence(JsonStreamWriter writer, WatchedFence fence, int geometryRef, List<Point> points, String key,
+            CoordinateBuffer coordinates, int fields) {
+        writer.beginObject();
+
+        writer.name("fence").beginObject();
+        writer.name("anchorpoint");
+        writePoint(writer, fence.getFence().getAnchorPoint());
+        if(points != null && coordinates != null) {
+            writer.name("pointOffset").value(coordinates.getPointCount());
+            for(Point point : points) {
+                coordinates.add(point);
+            }
+            writer.name("pointCount").value(points.size());
+        } else if(points != null) {
+            writer.name("points").beginArray();
+            for(Point point : points) {
+                writePoint(writer, point);
+            }
+            writer.endArray();
+        }
+        if(geometryRef != NO_GEOMETRY_REF) {
+            writer.name("geometryRef").value(geometryRef);
+        }
+        writer.name("ttl").value(fence.getFence().getTtl());
+        writer.endObject();
+
+        writer.name("meta").beginObject();
+        writer.name("status").value(fence.getStatus().toString());
+        writer.name("retrievalTime").value(fence.getRetrievalTime().toString());
+        ApproachDetails approachDetails = fence.getApproachDetails();
+        if(approachDetails != null && StateField.APPROACH_DETAILS.isIn(fields)) {
+            writer.name("approachDetails").beginObject();
+            writer.name("isApproaching").value(approachDetails.isApproaching());
+            writer.name("reciprocalBearing").value(approachDetails.getReciprocalBearing());
+            writer.name("evasiveBearing").value(approachDetails.getEvasiveBearing());
+            writer.endObject();
+        }
+        writer.endObject();
+
+        if(key != null) {
+            writer.name("key").value(key);
+        }
+        writer.endObject();
+    }
+
+    /**
+     * A state as it's saved for warm starts: like {@link #writeAgentState}, but every fence carries its
+     * own points, since the next run's Javascript won't have any geometry cached.
+     * `geometryCache` is only used to simplify the points, if the agent asked for that.
+     */
+    private static void writeSnapshotState(JsonStreamWriter writer, AgentState<Void> agentState, GeometryCache geometryCache) {
+        writer.beginObject();
+        writer.name("fences").beginArray();
+        for(WatchedFence fence : agentState.getFences()) {
+            writeWatchedFence(writer, fence, NO_GEOMETRY_REF, geometryCache.pointsToSend(fence, GeometryCache.keyOf(fence)), null, null,
+                    StateField.ALL);
+        }
+        writer.endArray();
+        writer.name("geodomain");
+        writeWatchedGeodomain(writer, agentState.getGeodomain(), StateField.ALL);
+        writer.endObject();
+    }
+
+    /**
+     * A saved state is good until the first of its fences or its geodomain would have expired.
+     */
+    private static long snapshotExpiration(AgentState<Void> agentState) {
+        long ttlSeconds = agentState.getGeodomain().raw().getTtl();
+        for(WatchedFence fence : agentState.getFences()) {
+            ttlSeconds = Math.min(ttlSeconds, fence.getFence().getTtl());
+        }
+        return System.currentTimeMillis() + 1000 * ttlSeconds;
+    }
+
+    /**
+     * Fences don't carry an identifier of their own, so they are identified by their anchorpoint.
+     * If two fences in the same state share an anchorpoint, the later ones are told apart by their
+     * position among the fences sharing it.
+     */
+    private static String fenceKey(WatchedFence fence, HashMap<String, Integer> seenAnchors) {
+        Point anchorPoint = fence.getFence().getAnchorPoint();
+        String anchorKey = anchorPoint.getLongitude() + "," + anchorPoint.getLatitude();
+        Integer timesSeen = seenAnchors.get(anchorKey);
+        seenAnchors.put(anchorKey, timesSeen == null ? 1 : timesSeen + 1);
+        return timesSeen == null ? anchorKey : anchorKey + "#" + timesSeen;
+    }
+
+    /**
+     * Only the parts of a fence that delegates react to; the retrieval time is left out on purpose,
+     * since it changes on every refresh even when nothing else about the fence has, and so are the
+     * approach details when they aren't in `fields`.
+     */
+    private static String fenceSignature(WatchedFence fence, int geometryRef, int fields) {
+        StringBuilder signature = new StringBuilder(64);
+        signature.append(fence.getStatus()).append('|');
+        ApproachDetails approachDetails = fence.getApproachDetails();
+        if(approachDetails != null && StateField.APPROACH_DETAILS.isIn(fields)) {
+            signature.append(approachDetails.isApproaching()).append(',')
+                    .append(approachDetails.getReciprocalBearing()).append(',')
+                    .append(approachDetails.getEvasiveBearing());
+        }
+        signature.append('|').append(fence.getFence().getTtl()).append('|').append(geometryRef);
+        return signature.toString();
+    }
+
+    /**
+     * Remembers which fence geometries a delegate has already sent to Javascript, which keeps a matching
+     * cache of points by `geometryRef`.
+     *
+     * Both sides only keep the geometries used by the last message, so the Javascript cache is never
+     * missing anything this one has. Entries also expire with their fence's TTL, and refs are never reused,
+     * so a stale geometry just gets sent again under a new ref.
+     */
+    private static class GeometryCache {
+        private final HashMap<String, Integer> refs = new HashMap<String, Integer>();
+        private final HashMap<String, Long> expirations = new HashMap<String, Long>();
+        private final HashSet<String> touched = new HashSet<String>();
+        private int nextRef = 0;
+        private final double simplificationTolerance;
+
+        public GeometryCache(double simplificationTolerance) {
+            this.simplificationTolerance = simplificationTolerance;
+        }
+
+        /**
+         * Fences have no identifier of their own, so a geometry is keyed on its anchorpoint, its TTL,
+         * and a hash of its points.
+         */
+        public static String keyOf(WatchedFence fence) {
+            Point anchorPoint = fence.getFence().getAnchorPoint();
+            int pointCount = 0;
+            long pointHash = 17;
+            for(Point point : fence.getFence().getPoints()) {
+                pointHash = 31 * pointHash + Double.doubleToLongBits(point.getLongitude());
+                pointHash = 31 * pointHash + Double.doubleToLongBits(point.getLatitude());
+                pointCount++;
+            }
+            return anchorPoint.getLongitude() + "," + anchorPoint.getLatitude() + "|" +
+                    fence.getFence().getTtl() + "|" + pointCount + "|" + Long.toHexString(pointHash);
+        }
+
+        public Integer lookup(String key) {
+            Long expiration = expirations.get(key);
+            if(expiration == null) {
+                return null;
+            }
+            if(expiration < System.currentTimeMillis()) {
+                refs.remove(key);
+                expirations.remove(key);
+                return null;
+            }
+            touched.add(key);
+            return refs.get(key);
+        }
+
+        public Integer add(String key, long ttlSeconds) {
+            Integer ref = nextRef++;
+            refs.put(key, ref);
+            expirations.put(key, System.currentTimeMillis() + 1000 * ttlSeconds);
+            touched.add(key);
+            return ref;
+        }
+
+        /**
+         * The points to send for a geometry that Javascript doesn't have yet: simplified, if this
+         * delegate's agent asked for that, and otherwise the fence's own.
+         */
+        public List<Point> pointsToSend(WatchedFence fence, String key) {
+            List<Point> points = fence.getFence().getPoints();
+            if(simplificationTolerance <= 0) {
+                return points;
+            }
+            return SIMPLIFIED_GEOMETRY_CACHE.get(key, points, simplificationTolerance);
+        }
+
+        /**
+         * Called after each message, to drop the geometries that message didn't use.
+         */
+        public void retainTouched() {
+            refs.keySet().retainAll(touched);
+            expirations.keySet().retainAll(touched);
+            touched.clear();
+        }
+
+        public void clear() {
+            refs.clear();
+            expirations.clear();
+            touched.clear();
+        }
+    }
+
+    /**
+     * Simplified fence geometries, shared by every agent, so that a geometry is only simplified once
+     * per tolerance no matter how often it's sent again.
+     *
+     * Simplification is only ever applied to what gets sent to Javascript, which just draws the fences;
+     * the agent keeps the original geometry for deciding whether the device is inside a fence.
+     */
+    private static class SimplifiedGeometryCache {
+        private static final int MAX_GEOMETRIES = 1024;
+
+        //Least recently used first. Guarded by `this`.
+        private final LinkedHashMap<String, List<Point>> simplifiedPoints =
+                new LinkedHashMap<String, List<Point>>(16, 0.75f, true) {
+                    protected boolean removeEldestEntry(Map.Entry<String, List<Point>> eldest) {
+                        return size() > MAX_GEOMETRIES;
+                    }
+                };
+
+        /**
+         * About one pixel at `zoomLevel` on a 256 pixel tile map, in degrees of longitude; finer detail
+         * than that isn't visible on a map at that zoom.
+         */
+        public static double toleranceForZoomLevel(int zoomLevel) {
+            return 360.0 / (256 * Math.pow(2, zoomLevel));
+        }
+
+        public List<Point> get(String geometryKey, List<Point> points, double tolerance) {
+            String key = tolerance + "@" + geometryKey;
+            synchronized(this) {
+                List<Point> simplified = simplifiedPoints.get(key);
+                if(simplified != null) {
+                    return simplified;
+                }
+            }
+            //Simplifying twice in a race is harmless, and cheaper than holding the lock while it runs.
+            List<Point> simplified = simplify(points, tolerance);
+            synchronized(this) {
+                simplifiedPoints.put(key, simplified);
+            }
+            return simplified;
+        }
+
+        public synchronized void clear() {
+            simplifiedPoints.clear();
+        }
+
+        /**
+         * See {@link GeometrySimplifier}; the result is a subset of `points`, or `points` itself when
+         * nothing would be dropped.
+         */
+        private static List<Point> simplify(List<Point> points, double tolerance) {
+            if(!(points instanceof RandomAccess)) {
+                points = new ArrayList<Point>(points);
+            }
+            int pointCount = points.size();
+            double[] coordinates = new double[2 * pointCount];
+            for(int i = 0; i < pointCount; i++) {
+                Point point = points.get(i);
+                coordinates[2 * i] = point.getLongitude();
+                coordinates[2 * i + 1] = point.getLatitude();
+            }
+            int[] kept = GeometrySimplifier.simplify(coordinates, tolerance);
+            if(kept.length == pointCount) {
+                return points;
+            }
+            ArrayList<Point> simplified = new ArrayList<Point>(kept.length);
+            for(int index : kept) {
+                simplified.add(points.get(index));
+            }
+            return simplified;
+        }
+    }
+
+    /**
+     * Without {@link StateField#REQUIREMENTS} in `fields`, the geodomain is written without its requirements.
+     */
+    private static void writeWatchedGeodomain(JsonStreamWriter writer, WatchedGeodomain watchedGeodomain, int fields) {
+        writer.beginObject();
+        writer.name("geodomain");
+        if(StateField.REQUIREMENTS.isIn(fields)) {
+            writeGeodomain(writer, watchedGeodomain);
+        } else {
+            Geodomain geodomain = watchedGeodomain.raw();
+            writer.beginObject();
+            writer.name("ttl").value(geodomain.getTtl());
+            writer.name("domainName").value(geodomain.getDomainName());
+            writer.name("identifier").value(geodomain.getIdentifier());
+            writer.endObject();
+        }
+        writer.name("status").beginObject();
+        writer.name("status").value(watchedGeodomain.getGeodomainStatus());
+        writer.name("retrievalTime").value(watchedGeodomain.getRetrievalTime());
+        writer.endObject();
+        writer.endObject();
+    }
+
+    /**
+     * Geodomains don't change until the SDK fetches them again, so each fetch's JSON is only written
+     * once and spliced into every message after that.
+     */
+    private static void writeGeodomain(JsonStreamWriter writer, WatchedGeodomain watchedGeodomain) {
+        writer.rawValue(GEODOMAIN_CACHE.get(watchedGeodomain));
+    }
+
+    private static void writeUncachedGeodomain(JsonStreamWriter writer, Geodomain geodomain) {
+        writer.beginObject();
+        writer.name("requirements").beginArray();
+        for(Requirement requirement : geodomain.getRequirements()) {
+            writeRequirement(writer, requirement, geodomain.getDomainName());
+        }
+        writer.endArray();
+        writer.name("ttl").value(geodomain.getTtl());
+        writer.name("domainName").value(geodomain.getDomainName());
+        writer.name("identifier").value(geodomain.getIdentifier());
+        writer.endObject();
+    }
+
+    private static void writeRequirement(JsonStreamWriter writer, Requirement requirement, String geodomain) {
+        if(requirement.getBaseType() == RequirementBaseType.BLOB) {
+            throw new BlobRequirementsUnsupportedException(geodomain);
+        }
+        writer.beginObject();
+        writer.name("baseType").value(requirement.getBaseType().toString());
+        switch(requirement.getBaseType()) {
+            case COLOR:
+                ColorRequirement colorRequirement = (ColorRequirement) requirement;
+                writer.name("red").value(colorRequirement.getRed());
+                writer.name("green").value(colorRequirement.getGreen());
+                writer.name("blue").value(colorRequirement.getBlue());
+                writer.name("alpha").value(colorRequirement.getAlpha());
+                break;
+            case BOOLEANSET:
+                BooleanSetRequirement boolsetRequirement = (BooleanSetRequirement) requirement;
+                writer.name("bool0").value(boolsetRequirement.isBit0());
+                writer.name("bool1").value(boolsetRequirement.isBit1());
+                writer.name("bool2").value(boolsetRequirement.isBit2());
+                writer.name("bool3").value(boolsetRequirement.isBit3());
+                writer.name("bool4").value(boolsetRequirement.isBit4());
+                writer.name("bool5").value(boolsetRequirement.isBit5());
+                writer.name("bool6").value(boolsetRequirement.isBit6());
+                writer.name("bool7").value(boolsetRequirement.isBit7());
+                writer.name("bool8").value(boolsetRequirement.isBit8());
+                writer.name("bool9").value(boolsetRequirement.isBit9());
+                writer.name("bool10").value(boolsetRequirement.isBit10());
+                writer.name("bool11").value(boolsetRequirement.isBit11());
+                writer.name("bool12").value(boolsetRequirement.isBit12());
+                writer.name("bool13").value(boolsetRequirement.isBit13());
+                writer.name("bool14").value(boolsetRequirement.isBit14());
+                writer.name("bool15").value(boolsetRequirement.isBit15());
+                break;
+            case THRESHOLD:
+                ThresholdRequirement thresholdRequirement = (ThresholdRequirement) requirement;
+                writer.name("lowerBound").value(thresholdRequirement.getLower());
+                writer.name("upperBound").value(thresholdRequirement.getUpper());
+                writer.name("unit").value(thresholdRequirement.getUnit().toString());
+                break;
+            case INTERVAL:
+                IntervalRequirement intervalRequirement = (IntervalRequirement) requirement;
+                writer.name("unit").value(intervalRequirement.getUnit().toString());
+                writer.name("initialState").value(intervalRequirement.getInterval().getInitialState());
+                writer.name("floor").value(intervalRequirement.getInterval().getFloor());
+                writer.name("ceiling").value(intervalRequirement.getInterval().getCeiling());
+                writer.name("stateChanges").beginArray();
+                for(Double stateChange : intervalRequirement.getInterval().getStateChanges()) {
+                    writer.value(stateChange.doubleValue());
+                }
+                writer.endArray();
+                break;
+            case PROFILE:
+                ProfileRequirement profileRequirement = (ProfileRequirement) requirement;
+                writer.name("value").value(profileRequirement.getValue());
+                break;
+        }
+        writer.endObject();
+    }
+
+    /**
+     * `cachedOldSnapshot`, when it isn't `null`, is written as the old snapshot as it is.
+     */
+    private static void writeAgentStateUpdate(JsonStreamWriter writer, AgentState<Void> oldSnapshot, AgentState<Void> newSnapshot,
+            String cachedOldSnapshot, GeometryCache geometryCache, CoordinateBuffer coordinates, int fields) {
+        writer.beginObject();
+        writer.name("oldSnapshot");
+        if(cachedOldSnapshot != null) {
+            writer.rawValue(cachedOldSnapshot);
+        } else {
+            writeAgentState(writer, oldSnapshot, geometryCache, coordinates, fields);
+        }
+        writer.name("newSnapshot");
+        writeAgentState(writer, newSnapshot, geometryCache, coordinates, fields);
+        writer.endObject();
+    }
+
+    /**
+     * Collects the points of every fence in a message into one flat buffer of longitude/latitude pairs,
+     * which is sent base64 encoded alongside the message, so that Javascript can read them through
+     * typed arrays instead of parsing them out of nested JSON arrays.
+     *
+     * Like the {@link JsonStreamWriter}s, each delegate reuses one of these for every message.
+     */
+    private static class CoordinateBuffer {
+        private static final double INT32_SCALE = 1e7;
+
+        private final PointEncoding encoding;
+        private ByteBuffer bytes = ByteBuffer.allocate(8192).order(ByteOrder.LITTLE_ENDIAN);
+        private int pointCount = 0;
+
+        public CoordinateBuffer(PointEncoding encoding) {
+            this.encoding = encoding;
+        }
+
+        public void reset() {
+            bytes.clear();
+            pointCount = 0;
+        }
+
+        public int getPointCount() {
+            return this.pointCount;
+        }
+
+        public void add(Point point) {
+            int pointSize = encoding == PointEncoding.INT32 ? 8 : 16;
+            if(bytes.remaining() < pointSize) {
+                ByteBuffer grown = ByteBuffer.allocate(bytes.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+                bytes.flip();
+                grown.put(bytes);
+                bytes = grown;
+            }
+            if(encoding == PointEncoding.INT32) {
+                bytes.putInt((int) Math.round(point.getLongitude() * INT32_SCALE));
+                bytes.putInt((int) Math.round(point.getLatitude() * INT32_SCALE));
+            } else {
+                bytes.putDouble(point.getLongitude());
+                bytes.putDouble(point.getLatitude());
+            }
+            pointCount++;
+        }
+
+        public void write(JsonStreamWriter writer) {
+            writer.beginObject();
+            writer.name("encoding").value(encoding.getEncodingName());
+            if(encoding == PointEncoding.INT32) {
+                writer.name("scale").value(INT32_SCALE);
+            }
+            writer.name("data").value(Base64.encodeToString(bytes.array(), 0, bytes.position(), Base64.NO_WRAP));
+            writer.endObject();
+        }
+    }
+
+    private static void writePoint(JsonStreamWriter writer, Point point) {
+        writer.beginArray().value(point.getLongitude()).value(point.getLatitude()).endArray();
+    }
+
+    /**
+     * The agent's status, taken when a message is handed to its delegate, so that it still describes
+     * the agent at that point when the message is finally sent.
+     */
+    private static class AgentStatus {
+        private final Boolean isRunning;
+        private final String geodomain;
+        private final boolean cached;
+
+        private AgentStatus(Boolean isRunning, String geodomain, boolean cached) {
+            this.isRunning = isRunning;
+            this.geodomain = geodomain;
+            this.cached = cached;
+        }
+
+        public static AgentStatus of(FencingAgent<Void> fa) {
+            Boolean isRunning = null;
+            try {
+                isRunning = fa.isRunning();
+                return new AgentStatus(isRunning, fa.getRawGeodomain().getDomainName(), false);
+            } catch(NullPointerException npe) {
+                return new AgentStatus(isRunning, null, false);
+            }
+        }
+
+        /**
+         * The same status, for a message carrying a state saved by an earlier run.
+         */
+        public AgentStatus asCached() {
+            return new AgentStatus(isRunning, geodomain, true);
+        }
+
+        public void write(JsonStreamWriter writer) {
+            writer.beginObject();
+            if(isRunning != null) {
+                writer.name("isRunning").value(isRunning.booleanValue());
+            }
+            if(geodomain != null) {
+                writer.name("geodomain").value(geodomain);
+            }
+            if(cached) {
+                writer.name("cached").value(true);
+            }
+            writer.endObject();
+        }
+    }
+
+    /**
+     * Running totals about one delegate, for `getMetrics`.
+     *
+     * Recording is a handful of atomic increments per message, cheap enough to always leave on. Nothing is
+     * ever reset; a snapshot is whatever the counters hold when it's taken, so its parts may be a message
+     * apart from each other.
+     */
+    private static class DelegateMetrics {
+        //Upper bounds of the latency histogram's buckets; the last bucket counts everything slower.
+        private static final long[] LATENCY_BUCKET_BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+        private final AtomicLongArray eventCounts = new AtomicLongArray(DelegateMessageType.values().length);
+        private final AtomicInteger peakQueueDepth = new AtomicInteger(0);
+        private final AtomicLong serializedMessages = new AtomicLong(0);
+        private final AtomicLong serializationNanos = new AtomicLong(0);
+        private final AtomicLong maxSerializationNanos = new AtomicLong(0);
+        private final AtomicLong payloadChars = new AtomicLong(0);
+        private final AtomicLong maxPayloadChars = new AtomicLong(0);
+        private final AtomicLong latencyNanos = new AtomicLong(0);
+        private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BUCKET_BOUNDS_MILLIS.length + 1);
+        private final AtomicLong serializationFailures = new AtomicLong(0);
+        private final AtomicLong callbackErrors = new AtomicLong(0);
+
+        public void recordEvent(DelegateMessageType messageType) {
+            eventCounts.incrementAndGet(messageType.ordinal());
+        }
+
+        public void recordQueueDepth(int depth) {
+            recordMax(peakQueueDepth, depth);
+        }
+
+        public void recordSerialization(long nanos, int chars) {
+            serializedMessages.incrementAndGet();
+            serializationNanos.addAndGet(nanos);
+            recordMax(maxSerializationNanos, nanos);
+            payloadChars.addAndGet(chars);
+            recordMax(maxPayloadChars, chars);
+        }
+
+        public void recordLatency(long nanos) {
+            latencyNanos.addAndGet(nanos);
+            long millis = nanos / 1000000;
+            int bucket = 0;
+            while(bucket < LATENCY_BUCKET_BOUNDS_MILLIS.length && millis >= LATENCY_BUCKET_BOUNDS_MILLIS[bucket]) {
+                bucket++;
+            }
+            latencyBuckets.incrementAndGet(bucket);
+        }
+
+        public void recordSerializationFailure() {
+            serializationFailures.incrementAndGet();
+        }
+
+        public void recordCallbackError() {
+            callbackErrors.incrementAndGet();
+        }
+
+        public JSONObject serialize(int queueDepth) throws JSONException {
+            JSONObject events = new JSONObject();
+            for(DelegateMessageType messageType : DelegateMessageType.values()) {
+                events.put(messageType.getActionName(), eventCounts.get(messageType.ordinal()));
+            }
+
+            JSONObject queue = new JSONObject();
+            queue.put("depth", queueDepth);
+            queue.put("peakDepth", peakQueueDepth.get());
+
+            JSONObject serialization = new JSONObject();
+            serialization.put("messages", serializedMessages.get());
+            serialization.put("totalMicros", serializationNanos.get() / 1000);
+            serialization.put("maxMicros", maxSerializationNanos.get() / 1000);
+            serialization.put("totalChars", payloadChars.get());
+            serialization.put("maxChars", maxPayloadChars.get());
+
+            JSONArray bucketBounds = new JSONArray();
+            JSONArray bucketCounts = new JSONArray();
+            for(int i = 0; i < latencyBuckets.length(); i++) {
+                if(i < LATENCY_BUCKET_BOUNDS_MILLIS.length) {
+                    bucketBounds.put(LATENCY_BUCKET_BOUNDS_MILLIS[i]);
+                }
+                bucketCounts.put(latencyBuckets.get(i));
+            }
+            JSONObject latency = new JSONObject();
+            latency.put("totalMicros", latencyNanos.get() / 1000);
+            latency.put("bucketBoundsMillis", bucketBounds);
+            latency.put("bucketCounts", bucketCounts);
+
+            JSONObject errors = new JSONObject();
+            errors.put("serialization", serializationFailures.get());
+            errors.put("callback", callbackErrors.get());
+
+            JSONObject serializedMetrics = new JSONObject();
+            serializedMetrics.put("events", events);
+            serializedMetrics.put("queue", queue);
+            serializedMetrics.put("serialization", serialization);
+            serializedMetrics.put("latency", latency);
+            serializedMetrics.put("errors", errors);
+            return serializedMetrics;
+        }
+
+        private static void recordMax(AtomicInteger max, int value) {
+            int current;
+            while(value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            }
+        }
+
+        private static void recordMax(AtomicLong max, long value) {
+            long current;
+            while(value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            }
+        }
+    }
+
+    /**
+     * A fixed number of the most recent things that happened in the plugin, for debugging problems in the field.
+     *
+     * Off until Javascript starts it, and then only as big as it was asked to be. Records are kept in
+     * preallocated arrays, so recording doesn't allocate, and while tracing is off it costs one volatile read.
+     */
+    private static class TraceRecorder {
+        private static final String KIND_ACTION = "action";
+        private static final String KIND_EVENT = "event";
+        private static final String KIND_COALESCED = "coalesced";
+        private static final String KIND_DROPPED = "dropped";
+        private static final String KIND_DELIVERED = "delivered";
+
+        private volatile boolean recording = false;
+        //Guarded by `this`.
+        private long[] times = new long[0];
+        private String[] kinds = new String[0];
+        private String[] names = new String[0];
+        private String[] geodomains = new String[0];
+        private int[] queueDepths = new int[0];
+        private long recorded = 0;
+
+        /**
+         * Starts recording into a fresh buffer of `capacity` records, dropping anything recorded before.
+         */
+        public synchronized void start(int capacity) {
+            if(capacity < 1) {
+                throw new IllegalArgumentException("FencingAgent plugin for Cordova given a trace capacity below 1.");
+            }
+            times = new long[capacity];
+            kinds = new String[capacity];
+            names = new String[capacity];
+            geodomains = new String[capacity];
+            queueDepths = new int[capacity];
+            recorded = 0;
+            recording = true;
+        }
+
+        /**
+         * Stops recording, but keeps what was recorded so that it can still be dumped.
+         */
+        public void stop() {
+            recording = false;
+        }
+
+        /**
+         * `geodomain` may be `null`, and `queueDepth` -1, when they don't apply.
+         */
+        public void record(String kind, String name, String geodomain, int queueDepth) {
+            if(!recording) {
+                return;
+            }
+            synchronized(this) {
+                int slot = (int) (recorded % times.length);
+                times[slot] = System.currentTimeMillis();
+                kinds[slot] = kind;
+                names[slot] = name;
+                geodomains[slot] = geodomain;
+                queueDepths[slot] = queueDepth;
+                recorded++;
+            }
+        }
+
+        /**
+         * The records still in the buffer, oldest first.
+         */
+        public synchronized JSONObject serialize() throws JSONException {
+            JSONArray records = new JSONArray();
+            int kept = (int) Math.min(recorded, times.length);
+            for(long i = recorded - kept; i < recorded; i++) {
+                int slot = (int) (i % times.length);
+                JSONObject record = new JSONObject();
+                record.put("time", times[slot]);
+                record.put("kind", kinds[slot]);
+                record.put("name", names[slot]);
+                if(geodomains[slot] != null) {
+                    record.put("geodomain", geodomains[slot]);
+                }
+                if(queueDepths[slot] >= 0) {
+                    record.put("queueDepth", queueDepths[slot]);
+                }
+                records.put(record);
+            }
+            JSONObject serializedTrace = new JSONObject();
+            serializedTrace.put("recording", recording);
+            serializedTrace.put("capacity", times.length);
+            serializedTrace.put("recorded", recorded);
+            serializedTrace.put("records", records);
+            return serializedTrace;
+        }
+    }
+
+    /**
+     * Hands Cordova JSON that has already been written, so that it goes to Javascript as-is instead of
+     * being built into a {@code JSONObject} just to be turned back into a string.
+     */
+    private static class RawJsonPluginResult extends PluginResult {
+        private final String json;
+
+        public RawJsonPluginResult(Status status, String json) {
+            super(status);
+            this.json = json;
+        }
+
+        @Override
+        public int getMessageType() {
+            return PluginResult.MESSAGE_TYPE_JSON;
+        }
+
+        @Override
+        public String getMessage() {
+            return this.json;
+        }
+    }
+
+    /**
+     * Debug logging follows the app's Cordova `loglevel` preference, so it's off unless the app turns it on.
+     * Check this before building a message, so that nothing is concatenated for a message that won't be logged.
+     */
+    private static boolean isDebugLogging() {
+        return LOG.isLoggable(LOG.DEBUG);
+    }
+
+    private static void debug(String message) {
+        LOG.d(LOG_TAG, message);
     }
 
     private static void log(String message) {
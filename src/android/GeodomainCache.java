@@ -0,0 +1,60 @@
+package net.geofrenzy.android.cordova;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.geofrenzy.android.sdk.domain.agentstate.WatchedGeodomain;
+import net.geofrenzy.android.sdk.domain.geodomains.Geodomain;
+
+/**
+ * Something built from a geodomain, kept until the geodomain's TTL runs out.
+ *
+ * Entries are keyed by the geodomain's identifier, TTL, and retrieval time, so a geodomain the SDK has
+ * fetched again is built again, even if nothing but its requirements changed. Expired entries are swept
+ * out whenever something has to be built. Two threads that miss at once may both build; the last one to
+ * finish is kept.
+ */
+abstract class GeodomainCache<V> {
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<String, Entry<V>>();
+
+    protected abstract V build(Geodomain geodomain);
+
+    public V get(WatchedGeodomain watchedGeodomain) {
+        Geodomain geodomain = watchedGeodomain.raw();
+        String key = geodomain.getIdentifier() + "|" + geodomain.getTtl() + "|" + watchedGeodomain.getRetrievalTime();
+        long now = System.currentTimeMillis();
+        Entry<V> entry = entries.get(key);
+        if(entry != null && entry.expiresAt >= now) {
+            return entry.value;
+        }
+
+        removeExpired(now);
+        V value = build(geodomain);
+        entries.put(key, new Entry<V>(value, now + 1000L * geodomain.getTtl()));
+        return value;
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private void removeExpired(long now) {
+        Iterator<Map.Entry<String, Entry<V>>> iterator = entries.entrySet().iterator();
+        while(iterator.hasNext()) {
+            if(iterator.next().getValue().expiresAt < now) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package net.geofrenzy.android.cordova;
+
+/**
+ * Douglas-Peucker simplification of fence outlines, on interleaved longitude/latitude pairs, treating
+ * longitude and latitude as plane coordinates.
+ *
+ * An explicit stack is used instead of recursion, so that fences with many thousands of points can't
+ * overflow the thread's. Both ends are always kept, which keeps closed rings closed.
+ */
+class GeometrySimplifier {
+    private GeometrySimplifier() {
+    }
+
+    /**
+     * The indices of the points to keep, in order. Every point is kept if there are too few to simplify,
+     * or if the ring would collapse below a triangle.
+     */
+    public static int[] simplify(double[] coordinates, double tolerance) {
+        int pointCount = coordinates.length / 2;
+        if(pointCount < 5) {
+            return allIndices(pointCount);
+        }
+
+        boolean[] kept = new boolean[pointCount];
+        kept[0] = true;
+        kept[pointCount - 1] = true;
+        int keptCount = 2;
+        int[] stack = new int[2 * pointCount];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        stack[stackSize++] = pointCount - 1;
+        double squaredTolerance = tolerance * tolerance;
+        while(stackSize > 0) {
+            int last = stack[--stackSize];
+            int first = stack[--stackSize];
+            int farthest = -1;
+            double farthestSquaredDistance = squaredTolerance;
+            for(int i = first + 1; i < last; i++) {
+                double squaredDistance = squaredSegmentDistance(coordinates, i, first, last);
+                if(squaredDistance > farthestSquaredDistance) {
+                    farthest = i;
+                    farthestSquaredDistance = squaredDistance;
+                }
+            }
+            if(farthest >= 0) {
+                kept[farthest] = true;
+                keptCount++;
+                stack[stackSize++] = first;
+                stack[stackSize++] = farthest;
+                stack[stackSize++] = farthest;
+                stack[stackSize++] = last;
+            }
+        }
+
+        if(keptCount < 4) {
+            return allIndices(pointCount);
+        }
+        int[] indices = new int[keptCount];
+        int j = 0;
+        for(int i = 0; i < pointCount; i++) {
+            if(kept[i]) {
+                indices[j++] = i;
+            }
+        }
+        return indices;
+    }
+
+    private static int[] allIndices(int pointCount) {
+        int[] indices = new int[pointCount];
+        for(int i = 0; i < pointCount; i++) {
+            indices[i] = i;
+        }
+        return indices;
+    }
+
+    /**
+     * Squared distance from point `point` to the segment from point `start` to point `end`; if the segment
+     * is a single point, as a ring's closing segment is, the distance to it.
+     */
+    private static double squaredSegmentDistance(double[] coordinates, int point, int start, int end) {
+        double px = coordinates[2 * point];
+        double py = coordinates[2 * point + 1];
+        double x = coordinates[2 * start];
+        double y = coordinates[2 * start + 1];
+        double dx = coordinates[2 * end] - x;
+        double dy = coordinates[2 * end + 1] - y;
+        if(dx != 0 || dy != 0) {
+            double t = ((px - x) * dx + (py - y) * dy) / (dx * dx + dy * dy);
+            if(t > 1) {
+                x = coordinates[2 * end];
+                y = coordinates[2 * end + 1];
+            } else if(t > 0) {
+                x += dx * t;
+                y += dy * t;
+            }
+        }
+        dx = px - x;
+        dy = py - y;
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,215 @@
+package net.geofrenzy.android.cordova;
+
+import java.util.ArrayList;
+
+/**
+ * Writes JSON straight into a reusable buffer, without building a tree of {@code JSONObject}s first.
+ *
+ * Output is byte for byte what {@code org.json} on Android would produce for the same values written in
+ * the same order: whole doubles lose their fraction, and strings are escaped the same way. That keeps
+ * the wire format identical to what {@code fencingAgent.js} has always parsed.
+ *
+ * A writer is not thread-safe; each {@code CordovaDelegate} keeps one and only uses it while draining.
+ */
+class JsonStreamWriter {
+    private final StringBuilder buffer = new StringBuilder(4096);
+    //Whether the innermost open object or array still needs a comma before its next value.
+    private final ArrayList<Boolean> needsComma = new ArrayList<Boolean>();
+    private boolean afterName = false;
+
+    /**
+     * Clears the buffer for the next message, keeping its capacity.
+     */
+    public JsonStreamWriter reset() {
+        buffer.setLength(0);
+        needsComma.clear();
+        afterName = false;
+        return this;
+    }
+
+    public JsonStreamWriter beginObject() {
+        beforeValue();
+        buffer.append('{');
+        needsComma.add(false);
+        return this;
+    }
+
+    public JsonStreamWriter endObject() {
+        close('}');
+        return this;
+    }
+
+    public JsonStreamWriter beginArray() {
+        beforeValue();
+        buffer.append('[');
+        needsComma.add(false);
+        return this;
+    }
+
+    public JsonStreamWriter endArray() {
+        close(']');
+        return this;
+    }
+
+    public JsonStreamWriter name(String name) {
+        if(afterName || needsComma.isEmpty()) {
+            throw new IllegalStateException("JsonStreamWriter was given a name outside of an object.");
+        }
+        separate();
+        string(name);
+        buffer.append(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonStreamWriter value(String value) {
+        if(value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        string(value);
+        return this;
+    }
+
+    public JsonStreamWriter value(boolean value) {
+        beforeValue();
+        buffer.append(value);
+        return this;
+    }
+
+    public JsonStreamWriter value(long value) {
+        beforeValue();
+        buffer.append(value);
+        return this;
+    }
+
+    /**
+     * Doubles are written the way {@code JSONObject.numberToString} writes them, so {@code 36.0} becomes {@code 36}.
+     */
+    public JsonStreamWriter value(double value) {
+        if(Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("JsonStreamWriter was given a non-finite number: " + value);
+        }
+        beforeValue();
+        if(value == 0 && 1 / value < 0) {
+            buffer.append("-0");
+        } else if(value == (double) (long) value) {
+            buffer.append((long) value);
+        } else {
+            buffer.append(value);
+        }
+        return this;
+    }
+
+    /**
+     * Writes any other value the way {@code JSONObject} would: numbers and booleans as themselves,
+     * and anything else as its {@code toString()}.
+     */
+    public JsonStreamWriter value(Object value) {
+        if(value == null) {
+            return nullValue();
+        } else if(value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        } else if(value instanceof Double || value instanceof Float) {
+            return value(((Number) value).doubleValue());
+        } else if(value instanceof Number) {
+            return value(((Number) value).longValue());
+        }
+        return value(value.toString());
+    }
+
+    public JsonStreamWriter nullValue() {
+        beforeValue();
+        buffer.append("null");
+        return this;
+    }
+
+    /**
+     * Splices in JSON that was already written, e.g. by another {@code JsonStreamWriter}.
+     */
+    public JsonStreamWriter rawValue(CharSequence json) {
+        beforeValue();
+        buffer.append(json);
+        return this;
+    }
+
+    public int length() {
+        return buffer.length();
+    }
+
+    /**
+     * The JSON written so far, without copying it; only valid until the next write or {@link #reset()}.
+     */
+    public CharSequence contents() {
+        return buffer;
+    }
+
+    public String toString() {
+        return buffer.toString();
+    }
+
+    private void beforeValue() {
+        if(afterName) {
+            afterName = false;
+            return;
+        }
+        separate();
+    }
+
+    private void separate() {
+        int depth = needsComma.size();
+        if(depth == 0) {
+            return;
+        }
+        if(needsComma.get(depth - 1)) {
+            buffer.append(',');
+        } else {
+            needsComma.set(depth - 1, true);
+        }
+    }
+
+    private void close(char closingCharacter) {
+        if(needsComma.isEmpty() || afterName) {
+            throw new IllegalStateException("JsonStreamWriter was asked to close something that wasn't open.");
+        }
+        needsComma.remove(needsComma.size() - 1);
+        buffer.append(closingCharacter);
+    }
+
+    private void string(String value) {
+        buffer.append('"');
+        for(int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            switch(c) {
+                case '"':
+                case '\\':
+                case '/':
+                    buffer.append('\\').append(c);
+                    break;
+                case '\t':
+                    buffer.append("\\t");
+                    break;
+                case '\b':
+                    buffer.append("\\b");
+                    break;
+                case '\n':
+                    buffer.append("\\n");
+                    break;
+                case '\r':
+                    buffer.append("\\r");
+                    break;
+                case '\f':
+                    buffer.append("\\f");
+                    break;
+                default:
+                    if(c <= 0x1F) {
+                        buffer.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        buffer.append(c);
+                    }
+                    break;
+            }
+        }
+        buffer.append('"');
+    }
+}
@@ -0,0 +1,78 @@
+package net.geofrenzy.android.cordova;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * The bounded queue a delegate's messages wait in until Javascript is listening.
+ *
+ * Refreshes are the only messages that are ever merged or dropped. With coalescing, a refresh that
+ * arrives right behind another is folded into it. Once the queue is over its limit, the oldest refresh
+ * is dropped; if there's no refresh to drop, the queue is left over its limit rather than lose a start,
+ * quit, or exception.
+ *
+ * This isn't thread safe; a delegate only touches its queue while draining.
+ */
+class MessageQueue<M extends MessageQueue.Message<M>> {
+    interface Message<M> {
+        boolean isRefresh();
+
+        /**
+         * Folds `laterRefresh` into this refresh.
+         */
+        void absorb(M laterRefresh);
+    }
+
+    /**
+     * What {@link #add} did with a message.
+     */
+    enum Outcome {
+        QUEUED,
+        //Folded into the refresh at the end of the queue.
+        COALESCED,
+        //Queued, and the oldest refresh was dropped to make room for it.
+        QUEUED_AND_DROPPED
+    }
+
+    private final LinkedList<M> messages = new LinkedList<M>();
+    private final int maxQueuedMessages;
+    private final boolean coalesce;
+
+    public MessageQueue(int maxQueuedMessages, boolean coalesce) {
+        this.maxQueuedMessages = maxQueuedMessages;
+        this.coalesce = coalesce;
+    }
+
+    public Outcome add(M message) {
+        if(coalesce && message.isRefresh() && !messages.isEmpty() && messages.getLast().isRefresh()) {
+            messages.getLast().absorb(message);
+            return Outcome.COALESCED;
+        }
+        messages.add(message);
+        if(messages.size() > maxQueuedMessages) {
+            Iterator<M> queued = messages.iterator();
+            while(queued.hasNext()) {
+                if(queued.next().isRefresh()) {
+                    queued.remove();
+                    return Outcome.QUEUED_AND_DROPPED;
+                }
+            }
+        }
+        return Outcome.QUEUED;
+    }
+
+    /**
+     * The oldest message, or `null` if the queue is empty.
+     */
+    public M poll() {
+        return messages.poll();
+    }
+
+    public boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    public int size() {
+        return messages.size();
+    }
+}
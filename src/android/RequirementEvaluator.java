@@ -0,0 +1,315 @@
+package net.geofrenzy.android.cordova;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.SortedSet;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import net.geofrenzy.android.commons.domain.Interval;
+import net.geofrenzy.android.commons.domain.Unit;
+import net.geofrenzy.android.sdk.domain.agentstate.WatchedGeodomain;
+import net.geofrenzy.android.sdk.domain.geodomains.Geodomain;
+import net.geofrenzy.android.sdk.domain.requirements.BooleanSetRequirement;
+import net.geofrenzy.android.sdk.domain.requirements.ColorRequirement;
+import net.geofrenzy.android.sdk.domain.requirements.IntervalRequirement;
+import net.geofrenzy.android.sdk.domain.requirements.ProfileRequirement;
+import net.geofrenzy.android.sdk.domain.requirements.Requirement;
+import net.geofrenzy.android.sdk.domain.requirements.ThresholdRequirement;
+import net.geofrenzy.android.sdk.exception.BlobRequirementsUnsupportedException;
+
+/**
+ * Checks readings against a geodomain's requirements, so that apps don't each reimplement the checks
+ * in Javascript for every reading.
+ *
+ * A geodomain's requirements are compiled once per fetch into flat tables, and cached until the SDK
+ * fetches the geodomain again or its TTL runs out: an interval's state changes become a sorted array
+ * that each reading is binary searched into, and a boolean set becomes a bit mask.
+ *
+ * An interval starts in its initial state at its floor, and flips at every state change at or below the
+ * reading. Readings outside of an interval's floor and ceiling don't meet it.
+ *
+ * A reading may come in a different unit than its requirement, as long as both measure the same thing:
+ * length, speed, angle, or time (other than months, which don't have a fixed length).
+ */
+class RequirementEvaluator {
+    private static final EnumMap<Unit, String> DIMENSIONS = new EnumMap<Unit, String>(Unit.class);
+    //How many of its dimension's base unit each unit is.
+    private static final EnumMap<Unit, Double> BASE_UNITS = new EnumMap<Unit, Double>(Unit.class);
+
+    static {
+        addUnit(Unit.METERS, "length", 1);
+        addUnit(Unit.FEET, "length", 0.3048);
+        addUnit(Unit.KILOMETERS, "length", 1000);
+        addUnit(Unit.MILES, "length", 1609.344);
+        addUnit(Unit.NAUTICAL_MILES, "length", 1852);
+        addUnit(Unit.METERS_PER_SECOND, "speed", 1);
+        addUnit(Unit.KILOMETERS_PER_HOUR, "speed", 1000.0 / 3600);
+        addUnit(Unit.MILES_PER_HOUR, "speed", 0.44704);
+        addUnit(Unit.KNOTS, "speed", 1852.0 / 3600);
+        addUnit(Unit.RADIANS, "angle", 1);
+        addUnit(Unit.DEGREES_GEOMETRY, "angle", Math.PI / 180);
+        addUnit(Unit.SECONDS, "time", 1);
+        addUnit(Unit.MINUTES, "time", 60);
+        addUnit(Unit.DAYS, "time", 24 * 60 * 60);
+    }
+
+    private final GeodomainCache<CompiledRequirement[]> compiledGeodomains = new GeodomainCache<CompiledRequirement[]>() {
+        protected CompiledRequirement[] build(Geodomain geodomain) {
+            List<Requirement> uncompiled = geodomain.getRequirements();
+            CompiledRequirement[] requirements = new CompiledRequirement[uncompiled.size()];
+            for(int i = 0; i < requirements.length; i++) {
+                requirements[i] = compile(uncompiled.get(i), geodomain.getDomainName());
+            }
+            return requirements;
+        }
+    };
+
+    /**
+     * Evaluates each reading in `readings` against the requirement it names by its index in the geodomain.
+     * A reading that can't be evaluated gets an `error` instead of a `result`, without stopping the rest.
+     */
+    public JSONArray evaluate(WatchedGeodomain watchedGeodomain, JSONArray readings) throws JSONException {
+        Geodomain geodomain = watchedGeodomain.raw();
+        CompiledRequirement[] requirements = compiledGeodomains.get(watchedGeodomain);
+        JSONArray results = new JSONArray();
+        for(int i = 0; i < readings.length(); i++) {
+            JSONObject reading = readings.getJSONObject(i);
+            JSONObject result = new JSONObject();
+            int index = reading.getInt("requirement");
+            result.put("requirement", index);
+            try {
+                if(index < 0 || index >= requirements.length) {
+                    throw new IllegalArgumentException("Geodomain `" + geodomain.getDomainName() + "` has no requirement " + index + ".");
+                }
+                result.put("baseType", requirements[index].getBaseType());
+                result.put("result", requirements[index].evaluate(reading));
+            } catch(RuntimeException exception) {
+                result.put("error", exception.getMessage());
+            } catch(JSONException exception) {
+                result.put("error", exception.getMessage());
+            }
+            results.put(result);
+        }
+        return results;
+    }
+
+    public void clear() {
+        compiledGeodomains.clear();
+    }
+
+    private static CompiledRequirement compile(Requirement requirement, final String geodomain) {
+        switch(requirement.getBaseType()) {
+            case INTERVAL:
+                IntervalRequirement intervalRequirement = (IntervalRequirement) requirement;
+                return new IntervalTable(intervalRequirement.getInterval(), intervalRequirement.getUnit());
+            case THRESHOLD:
+                ThresholdRequirement thresholdRequirement = (ThresholdRequirement) requirement;
+                return new ThresholdTable(thresholdRequirement.getLower(), thresholdRequirement.getUpper(), thresholdRequirement.getUnit());
+            case BOOLEANSET:
+                return new BooleanSetTable((BooleanSetRequirement) requirement);
+            case COLOR:
+                return new ColorTable((ColorRequirement) requirement);
+            case PROFILE:
+                return new ProfileTable(((ProfileRequirement) requirement).getValue());
+            default:
+                //Only this requirement fails to evaluate; the geodomain's others still can.
+                return new CompiledRequirement(requirement.getBaseType().toString()) {
+                    public boolean evaluate(JSONObject reading) {
+                        throw new BlobRequirementsUnsupportedException(geodomain);
+                    }
+                };
+        }
+    }
+
+    /**
+     * Converts `value` from `from` to `to`. A reading without a unit is taken to already be in its requirement's.
+     */
+    static double convert(double value, Unit from, Unit to) {
+        if(from == null || from == to) {
+            return value;
+        }
+        String dimension = DIMENSIONS.get(from);
+        if(dimension == null || !dimension.equals(DIMENSIONS.get(to))) {
+            throw new IllegalArgumentException("FencingAgent plugin for Cordova can't convert " + from + " to " + to + ".");
+        }
+        return value * BASE_UNITS.get(from) / BASE_UNITS.get(to);
+    }
+
+    private static void addUnit(Unit unit, String dimension, double baseUnits) {
+        DIMENSIONS.put(unit, dimension);
+        BASE_UNITS.put(unit, baseUnits);
+    }
+
+    private static double readValue(JSONObject reading, Unit requirementUnit) throws JSONException {
+        String unitName = reading.optString("unit", null);
+        Unit readingUnit = null;
+        if(unitName != null && !unitName.isEmpty()) {
+            try {
+                readingUnit = Unit.valueOf(unitName);
+            } catch(IllegalArgumentException exception) {
+                throw new IllegalArgumentException(String.format(
+                        "FencingAgent plugin for Cordova recieved unrecognized unit `%s`",
+                        unitName
+                ));
+            }
+        }
+        return convert(reading.getDouble("value"), readingUnit, requirementUnit);
+    }
+
+    private abstract static class CompiledRequirement {
+        private final String baseType;
+
+        CompiledRequirement(String baseType) {
+            this.baseType = baseType;
+        }
+
+        public String getBaseType() {
+            return this.baseType;
+        }
+
+        public abstract boolean evaluate(JSONObject reading) throws JSONException;
+    }
+
+    private static class IntervalTable extends CompiledRequirement {
+        private final double[] stateChanges;
+        private final boolean initialState;
+        private final double floor;
+        private final double ceiling;
+        private final Unit unit;
+
+        IntervalTable(Interval interval, Unit unit) {
+            super("INTERVAL");
+            SortedSet<Double> changes = interval.getStateChanges();
+            this.stateChanges = new double[changes.size()];
+            int i = 0;
+            for(Double change : changes) {
+                this.stateChanges[i++] = change.doubleValue();
+            }
+            this.initialState = interval.getInitialState();
+            this.floor = interval.getFloor();
+            this.ceiling = interval.getCeiling();
+            this.unit = unit;
+        }
+
+        public boolean evaluate(JSONObject reading) throws JSONException {
+            double value = readValue(reading, unit);
+            if(value < floor || value > ceiling) {
+                return false;
+            }
+            //How many state changes are at or below `value`.
+            int low = 0;
+            int high = stateChanges.length;
+            while(low < high) {
+                int middle = (low + high) >>> 1;
+                if(stateChanges[middle] <= value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return initialState ^ (low % 2 == 1);
+        }
+    }
+
+    private static class ThresholdTable extends CompiledRequirement {
+        private final double lower;
+        private final double upper;
+        private final Unit unit;
+
+        ThresholdTable(double lower, double upper, Unit unit) {
+            super("THRESHOLD");
+            this.lower = lower;
+            this.upper = upper;
+            this.unit = unit;
+        }
+
+        public boolean evaluate(JSONObject reading) throws JSONException {
+            double value = readValue(reading, unit);
+            return value >= lower && value <= upper;
+        }
+    }
+
+    /**
+     * Met when the reading's bits match the requirement's. The reading is either an array of booleans,
+     * in which case only the bits it has are compared, or a whole number holding all 16 bits.
+     */
+    private static class BooleanSetTable extends CompiledRequirement {
+        private static final int BIT_COUNT = 16;
+        private final int bits;
+
+        BooleanSetTable(BooleanSetRequirement requirement) {
+            super("BOOLEANSET");
+            boolean[] set = {
+                requirement.isBit0(), requirement.isBit1(), requirement.isBit2(), requirement.isBit3(),
+                requirement.isBit4(), requirement.isBit5(), requirement.isBit6(), requirement.isBit7(),
+                requirement.isBit8(), requirement.isBit9(), requirement.isBit10(), requirement.isBit11(),
+                requirement.isBit12(), requirement.isBit13(), requirement.isBit14(), requirement.isBit15()
+            };
+            int bits = 0;
+            for(int i = 0; i < BIT_COUNT; i++) {
+                if(set[i]) {
+                    bits |= 1 << i;
+                }
+            }
+            this.bits = bits;
+        }
+
+        public boolean evaluate(JSONObject reading) throws JSONException {
+            JSONArray values = reading.optJSONArray("value");
+            if(values == null) {
+                return reading.getInt("value") == bits;
+            }
+            if(values.length() > BIT_COUNT) {
+                throw new IllegalArgumentException("FencingAgent plugin for Cordova recieved more than " + BIT_COUNT + " booleans.");
+            }
+            int mask = (1 << values.length()) - 1;
+            int readingBits = 0;
+            for(int i = 0; i < values.length(); i++) {
+                if(values.getBoolean(i)) {
+                    readingBits |= 1 << i;
+                }
+            }
+            return readingBits == (bits & mask);
+        }
+    }
+
+    /**
+     * Met when the reading, an object of `red`, `green`, `blue`, and `alpha`, is exactly the requirement's color.
+     */
+    private static class ColorTable extends CompiledRequirement {
+        private final int red;
+        private final int green;
+        private final int blue;
+        private final int alpha;
+
+        ColorTable(ColorRequirement requirement) {
+            super("COLOR");
+            this.red = requirement.getRed();
+            this.green = requirement.getGreen();
+            this.blue = requirement.getBlue();
+            this.alpha = requirement.getAlpha();
+        }
+
+        public boolean evaluate(JSONObject reading) throws JSONException {
+            JSONObject color = reading.getJSONObject("value");
+            return color.getInt("red") == red && color.getInt("green") == green &&
+                    color.getInt("blue") == blue && color.getInt("alpha") == alpha;
+        }
+    }
+
+    private static class ProfileTable extends CompiledRequirement {
+        private final String value;
+
+        ProfileTable(String value) {
+            super("PROFILE");
+            this.value = value;
+        }
+
+        public boolean evaluate(JSONObject reading) throws JSONException {
+            return reading.getString("value").equals(value);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package net.geofrenzy.android.cordova;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Keeps each agent's last state on disk, so that a restarted agent can show something before the SDK
+ * has fetched anything.
+ *
+ * Each geodomain gets one file: a fixed header (magic number, format version, expiry time, and length),
+ * followed by the state as UTF-8 JSON in the same shape the delegate sends to Javascript. Files are read
+ * by mapping them, and are written to a temporary file first and renamed over the old one, so a crash
+ * mid-write never leaves a torn snapshot behind.
+ *
+ * A snapshot that has expired, or that can't be read, is deleted the next time it's asked for.
+ */
+class SnapshotStore {
+    private static final int MAGIC = 0x47465353;
+    private static final int VERSION = 1;
+    //magic, version, expiry, length
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File directory;
+
+    public SnapshotStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * `expiresAt` is in milliseconds since the epoch.
+     */
+    public synchronized void write(String geodomain, String stateJSON, long expiresAt) throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("FencingAgent plugin for Cordova couldn't create its snapshot directory `" + directory + "`.");
+        }
+        byte[] state = stateJSON.getBytes(UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putLong(expiresAt).putInt(state.length);
+
+        File file = fileFor(geodomain);
+        File temporaryFile = new File(directory, file.getName() + ".tmp");
+        FileOutputStream output = new FileOutputStream(temporaryFile);
+        try {
+            output.write(header.array());
+            output.write(state);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if(!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            throw new IOException("FencingAgent plugin for Cordova couldn't replace the snapshot `" + file + "`.");
+        }
+    }
+
+    /**
+     * The stored state for `geodomain`, or `null` if there isn't a usable one.
+     */
+    public synchronized String read(String geodomain) {
+        File file = fileFor(geodomain);
+        if(!file.isFile()) {
+            return null;
+        }
+        String state = null;
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = input.getChannel();
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                mapped.order(ByteOrder.LITTLE_ENDIAN);
+                if(mapped.remaining() >= HEADER_BYTES && mapped.getInt() == MAGIC && mapped.getInt() == VERSION) {
+                    long expiresAt = mapped.getLong();
+                    int length = mapped.getInt();
+                    if(expiresAt > System.currentTimeMillis() && length >= 0 && length == mapped.remaining()) {
+                        state = UTF_8.decode(mapped).toString();
+                    }
+                }
+            } finally {
+                input.close();
+            }
+        } catch(IOException exception) {
+            state = null;
+        }
+        if(state == null) {
+            file.delete();
+        }
+        return state;
+    }
+
+    public synchronized void delete(String geodomain) {
+        fileFor(geodomain).delete();
+    }
+
+    /**
+     * Geodomain names are spelled out in hex, so that any name makes a safe file name.
+     */
+    private File fileFor(String geodomain) {
+        StringBuilder name = new StringBuilder();
+        for(byte b : geodomain.getBytes(UTF_8)) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return new File(directory, name.append(".snapshot").toString());
+    }
+}
@@ -1,10 +1,27 @@
 //TODO: make validation sane
 var actions = {
     "WATCH_FOR_NEXT_EVENT": "nextEvent",
+    "SUBSCRIBE": "subscribe",
+    "SET_FIELDS": "setFields",
     "QUIT": "quit",
     "START": "start",
     "PURGE_CACHE": "purgeCache",
-    "CREATE_AGENT": "createAgent"
+    "CREATE_AGENT": "createAgent",
+    "RESYNC": "resync",
+    "QUEUE_STATS": "queueStats",
+    "GET_METRICS": "getMetrics",
+    "QUERY_CONTAINS": "queryContains",
+    "QUERY_WITHIN_RADIUS": "queryWithinRadius",
+    "NEAREST_FENCES": "nearestFences",
+    "SUBSCRIBE_HUB": "subscribeHub",
+    "START_ALL": "startAll",
+    "QUIT_ALL": "quitAll",
+    "PURGE_CACHE_ALL": "purgeCacheAll",
+    "CREATE_AGENTS": "createAgents",
+    "EVALUATE_REQUIREMENTS": "evaluateRequirements",
+    "START_TRACE": "startTrace",
+    "STOP_TRACE": "stopTrace",
+    "DUMP_TRACE": "dumpTrace"
 };
 var delegateMessageTypes = {
     "ON_START": "onStart",
@@ -12,6 +29,33 @@ var delegateMessageTypes = {
     "ON_FENCE_REFRESH": "fencesRefreshed",
     "ON_EXCEPTION": "onException"
 };
+var pointEncodings = [
+    "json",
+    "float64",
+    "int32"
+];
+var queuePolicies = [
+    "coalesce",
+    "dropOldest"
+];
+/*
+    The parts of each state a FencingAgentDelegate can ask for, by projection. Fence statuses and
+    anchorpoints, and the geodomain's status, are always sent; the rest are left out of every message
+    unless at least one of the agent's delegates asks for them.
+*/
+var projections = {
+    "all": ["geometry", "approachDetails", "requirements"],
+    "noGeometry": ["approachDetails", "requirements"],
+    "noRequirements": ["geometry", "approachDetails"],
+    "approachOnly": ["approachDetails"],
+    "statusesOnly": []
+};
+//From quietest to noisiest.
+var logLevels = [
+    "off",
+    "error",
+    "debug"
+];
 var requirementTypes = [
     "COLOR",
     "BOOLEANSET",
@@ -20,7 +64,62 @@ var requirementTypes = [
     "PROFILE"
 ];
 
+/*
+    Every FencingAgent's response handler, by geodomain. Once a FencingAgentHub exists, the native side sends
+    the responses of every agent through the hub, tagged with their geodomain, and the hub hands each one
+    to the handler here.
+*/
+var hubHandlers = {};
+var hubSubscribed = false;
+
+/*
+    What each agent built by `FencingAgentHub.prototype.createAgents` does once its native agent exists,
+    by geodomain. The hub calls it from its `createAgents` callback, since the native agents are only
+    built after the call that asked for them has returned.
+*/
+var agentCreatedHandlers = {};
+
+//Nothing is logged unless the app asks for it through `FencingAgentDiagnostics.setLogLevel`.
+var logLevel = "off";
+
 //utils
+/*
+    Logs `message` if the log level is at least `level`. `message` may be a function that builds it,
+    so that nothing expensive is built for a message that won't be logged.
+*/
+var logAtLevel = function(level, message) {
+    if(logLevels.indexOf(level) > logLevels.indexOf(logLevel)) {
+        return;
+    }
+    if(typeof message === "function") {
+        message = message();
+    }
+    if(level === "error") {
+        console.error(message);
+    } else {
+        console.log(message);
+    }
+};
+
+/*
+    Parsed requirements, by geodomain identifier. A geodomain doesn't change until its TTL runs out,
+    so every update until then can reuse the same Requirement objects instead of parsing them again.
+*/
+var requirementCache = {};
+var cachedRequirementsFromJSON = function(geodomainJSON) {
+    var cacheKey = geodomainJSON.identifier + "|" + geodomainJSON.ttl;
+    var cached = requirementCache[geodomainJSON.identifier];
+    if(cached && cached.cacheKey === cacheKey && cached.expiresAt >= Date.now()) {
+        return cached.requirements.slice();
+    }
+    var requirements = geodomainJSON.requirements.map(requirementFromJSON);
+    requirementCache[geodomainJSON.identifier] = {
+        "cacheKey": cacheKey,
+        "expiresAt": Date.now() + 1000 * geodomainJSON.ttl,
+        "requirements": requirements
+    };
+    return requirements.slice();
+};
 var requirementFromJSON = function(requirementJSON) {
     switch(requirementJSON.baseType) {
         case "COLOR":
@@ -56,6 +155,204 @@ var validateNumber = function(num, contextName) {
     return num;
 };
 
+/*
+    Rebuilds full `fencesRefreshed` updates out of the deltas sent by agents with `deltaUpdates` enabled.
+    `apply` returns `null` when a delta doesn't follow the last one it saw; the agent should then ask
+    for a full snapshot, and deltas will be ignored until it arrives.
+*/
+var StateDeltaTracker = function() {
+    var lastSequence = -1;
+    var lastState = null;
+
+    this.apply = function(delta) {
+        validateObject(delta, "StateDeltaTracker.prototype.apply");
+        var oldState;
+        if(delta.baseSequence === -1) {
+            oldState = delta.oldSnapshot;
+        } else if(lastState !== null && delta.baseSequence === lastSequence) {
+            oldState = lastState;
+        } else {
+            return null;
+        }
+
+        var fencesByKey = {};
+        if(lastState !== null && delta.baseSequence !== -1) {
+            for(var i = 0; i < lastState.fences.length; i++) {
+                fencesByKey[lastState.fences[i].key] = lastState.fences[i];
+            }
+        }
+        for(var i = 0; i < delta.removed.length; i++) {
+            delete fencesByKey[delta.removed[i]];
+        }
+        for(var i = 0; i < delta.added.length; i++) {
+            fencesByKey[delta.added[i].key] = delta.added[i];
+        }
+        for(var i = 0; i < delta.changed.length; i++) {
+            fencesByKey[delta.changed[i].key] = delta.changed[i];
+        }
+
+        var newState = {
+            "fences": [],
+            "geodomain": delta.geodomain
+        };
+        for(var i = 0; i < delta.fenceKeys.length; i++) {
+            var fence = fencesByKey[delta.fenceKeys[i]];
+            if(typeof fence === "undefined") {
+                return null;
+            }
+            newState.fences.push(fence);
+        }
+
+        lastSequence = delta.sequence;
+        lastState = newState;
+        return {
+            "oldSnapshot": oldState,
+            "newSnapshot": newState
+        };
+    };
+
+    this.reset = function() {
+        lastSequence = -1;
+        lastState = null;
+    };
+};
+
+/*
+    Mirrors the native cache of fence geometries an agent has already sent.
+    Fences only carry their `points` the first time their `geometryRef` is sent; `resolve` fills them
+    back in everywhere else. After each message, `retain` drops the geometries the message didn't use,
+    which is exactly what the native side does.
+*/
+var GeometryCache = function() {
+    var geometryByRef = {};
+
+    //Fences carry their geometry either as `points`, or as `coordinates` when the agent sends points in binary.
+    var hasGeometry = function(fence) {
+        return Array.isArray(fence.points) || fence.coordinates instanceof Float64Array;
+    };
+
+    var fencesIn = function(stateJSON) {
+        if(typeof stateJSON === "object" && stateJSON !== null && Array.isArray(stateJSON.fences)) {
+            return stateJSON.fences;
+        }
+        return [];
+    };
+
+    this.resolve = function(fences) {
+        for(var i = 0; i < fences.length; i++) {
+            var fence = fences[i].fence;
+            if(typeof fence.geometryRef !== "undefined" && hasGeometry(fence)) {
+                geometryByRef[fence.geometryRef] = {
+                    "points": fence.points,
+                    "coordinates": fence.coordinates
+                };
+            }
+        }
+        for(var i = 0; i < fences.length; i++) {
+            var fence = fences[i].fence;
+            if(typeof fence.geometryRef !== "undefined" && !hasGeometry(fence)) {
+                if(!geometryByRef.hasOwnProperty(fence.geometryRef)) {
+                    throw new Error("GeometryCache recieved a fence referring to unknown geometry `" + fence.geometryRef + "`.");
+                }
+                fence.points = geometryByRef[fence.geometryRef].points;
+                fence.coordinates = geometryByRef[fence.geometryRef].coordinates;
+            }
+        }
+    };
+
+    this.retain = function(states) {
+        var retained = {};
+        for(var i = 0; i < states.length; i++) {
+            var fences = fencesIn(states[i]);
+            for(var j = 0; j < fences.length; j++) {
+                var ref = fences[j].fence.geometryRef;
+                if(typeof ref !== "undefined" && geometryByRef.hasOwnProperty(ref)) {
+                    retained[ref] = geometryByRef[ref];
+                }
+            }
+        }
+        geometryByRef = retained;
+    };
+
+    //Every fence in a message's content, in any of the shapes the native delegate sends.
+    this.fencesInContent = function(content) {
+        if(typeof content !== "object" || content === null) {
+            return [];
+        }
+        if(content.delta) {
+            return fencesIn(content.delta.oldSnapshot).concat(content.delta.added, content.delta.changed);
+        }
+        if(content.oldSnapshot || content.newSnapshot) {
+            return fencesIn(content.oldSnapshot).concat(fencesIn(content.newSnapshot));
+        }
+        if(content.stateBeforeError) {
+            return fencesIn(content.stateBeforeError);
+        }
+        return fencesIn(content);
+    };
+
+    //Every state a message's content describes, once deltas have been applied.
+    this.statesInContent = function(content) {
+        if(typeof content !== "object" || content === null) {
+            return [];
+        }
+        if(content.oldSnapshot || content.newSnapshot) {
+            return [content.oldSnapshot, content.newSnapshot];
+        }
+        if(content.stateBeforeError) {
+            return [content.stateBeforeError];
+        }
+        return [content];
+    };
+};
+
+/*
+    Agents with a binary `pointEncoding` send the points of a whole message as one base64 encoded buffer
+    of longitude/latitude pairs, and each fence only says where its points start in it and how many it has.
+    This gives those fences a `coordinates` Float64Array instead. Float64 buffers are read through views
+    straight into the buffer, which assumes a little-endian device, like every Android device Cordova runs on.
+*/
+var decodeCoordinates = function(coordinatesJSON, fences) {
+    var binary = atob(coordinatesJSON.data);
+    var bytes = new Uint8Array(binary.length);
+    for(var i = 0; i < binary.length; i++) {
+        bytes[i] = binary.charCodeAt(i);
+    }
+
+    var values;
+    var scale = 1;
+    if(coordinatesJSON.encoding === "float64") {
+        values = new Float64Array(bytes.buffer);
+    } else if(coordinatesJSON.encoding === "int32") {
+        values = new Int32Array(bytes.buffer);
+        scale = validateNumber(coordinatesJSON.scale, "decodeCoordinates");
+    } else {
+        throw new Error("decodeCoordinates recieved an unrecognized encoding. (`" + coordinatesJSON.encoding + "`)");
+    }
+
+    for(var i = 0; i < fences.length; i++) {
+        var fence = fences[i].fence;
+        if(typeof fence.pointOffset === "undefined") {
+            continue;
+        }
+        var start = 2 * fence.pointOffset;
+        var end = start + 2 * fence.pointCount;
+        if(end > values.length) {
+            throw new Error("decodeCoordinates recieved a fence whose points run past the end of the buffer.");
+        }
+        if(scale === 1) {
+            fence.coordinates = values.subarray(start, end);
+        } else {
+            fence.coordinates = new Float64Array(end - start);
+            for(var j = start; j < end; j++) {
+                fence.coordinates[j - start] = values[j] / scale;
+            }
+        }
+        delete fence.pointOffset;
+        delete fence.pointCount;
+    }
+};
+
 //Exports
 function Requirement(baseType) {
     if(!(requirementTypes.indexOf(baseType) > -1)) {
@@ -157,19 +454,23 @@ function IntervalRequirement(intervalJSON) {
     this.ceiling = validateNumber(intervalJSON.ceiling, "IntervalRequirement.prototype.ceiling");
     this.unit = intervalJSON.unit;//TODO validate
 
+    //The state flips at every state change at or below `point`; the state changes arrive in ascending order.
     this.getStateAtPoint = function(point) {
         validateNumber(point, "IntervalRequirement.prototype.getStateAtPoint");
-        if(point < floor || point > ceiling) {
+        if(point < this.floor || point > this.ceiling) {
             throw new Error("IntervalRequirement.prototype.getStateAtPoint recieved a point that was not between its floor and ceiling.");
         }
-        var currentState = this.initialState;
-        for(var i = 0; i < stateChangePoints.length; i++) {
-            currentState = !currentState;
-            if(point >= stateChangePoints[i]) {
-                break;
+        var low = 0;
+        var high = this.stateChangePoints.length;
+        while(low < high) {
+            var middle = (low + high) >>> 1;
+            if(this.stateChangePoints[middle] <= point) {
+                low = middle + 1;
+            } else {
+                high = middle;
             }
         }
-        return currentState;
+        return low % 2 === 1 ? !this.initialState : this.initialState;
     }.bind(this);
 }
 
@@ -177,7 +478,7 @@ function FencingAgentProfile(config, lenient) {
     validateObject(config);
     //Validation
     //If not in lenient mode, the config object must not contain any keys outside of those that are used.
-    var keyNames = ["geodomain", "detectApproach", "zoomLevel", "range", "interiorFocus", "dwellTime"];
+    var keyNames = ["geodomain", "detectApproach", "zoomLevel", "range", "interiorFocus", "dwellTime", "deltaUpdates", "maxQueuedMessages", "queuePolicy", "pointEncoding", "simplifyGeometry", "warmStart"];
     if(lenient !== true) {
         var configKeyNames = Object.getOwnPropertyNames(config);
         for(var i = 0; i < configKeyNames.length; i++) {
@@ -251,6 +552,72 @@ function FencingAgentProfile(config, lenient) {
             return 1;//one second
         }
     };
+    this.validateDeltaUpdates = function(deltaUpdates) {
+        if(typeof deltaUpdates !== "undefined" && deltaUpdates !== null) {
+            if(!(typeof deltaUpdates === "boolean")) {
+                throw new Error("`deltaUpdates` in `FencingAgentProfile` must be a boolean value.");
+            } else {
+                return deltaUpdates;
+            }
+        } else {
+            return false;
+        }
+    };
+    this.validateMaxQueuedMessages = function(maxQueuedMessages) {
+        if(typeof maxQueuedMessages !== "undefined" && maxQueuedMessages !== null) {
+            if(!(!isNaN(maxQueuedMessages) && maxQueuedMessages % 1 === 0 && maxQueuedMessages > 0)) {
+                throw new Error("`maxQueuedMessages` in `FencingAgentProfile` must be a whole number above 0.");
+            } else {
+                return maxQueuedMessages;
+            }
+        } else {
+            return 32;
+        }
+    };
+    this.validateQueuePolicy = function(queuePolicy) {
+        if(typeof queuePolicy !== "undefined" && queuePolicy !== null) {
+            if(!(queuePolicies.indexOf(queuePolicy) > -1)) {
+                throw new Error("`queuePolicy` in `FencingAgentProfile` must be one of: " + queuePolicies.join(", ") + ".");
+            } else {
+                return queuePolicy;
+            }
+        } else {
+            return "coalesce";
+        }
+    };
+    this.validatePointEncoding = function(pointEncoding) {
+        if(typeof pointEncoding !== "undefined" && pointEncoding !== null) {
+            if(!(pointEncodings.indexOf(pointEncoding) > -1)) {
+                throw new Error("`pointEncoding` in `FencingAgentProfile` must be one of: " + pointEncodings.join(", ") + ".");
+            } else {
+                return pointEncoding;
+            }
+        } else {
+            return "json";
+        }
+    };
+    this.validateSimplifyGeometry = function(simplifyGeometry) {
+        if(typeof simplifyGeometry !== "undefined" && simplifyGeometry !== null) {
+            if(!(typeof simplifyGeometry === "boolean")) {
+                throw new Error("`simplifyGeometry` in `FencingAgentProfile` must be a boolean value.");
+            } else {
+                return simplifyGeometry;
+            }
+        } else {
+            return false;
+        }
+    };
+    this.validateWarmStart = function(warmStart) {
+        if(typeof warmStart !== "undefined" && warmStart !== null) {
+            if(!(typeof warmStart === "boolean")) {
+                throw new Error("`warmStart` in `FencingAgentProfile` must be a boolean value.");
+            } else {
+                return warmStart;
+            }
+        } else {
+            return false;
+        }
+    };
 
     //Geodomain is not optional
     if(typeof config.geodomain === "undefined") {
@@ -291,6 +658,36 @@ function FencingAgentProfile(config, lenient) {
         "value": this.validateDwellTime(config.dwellTime),
         "writable": false
     });
+    //this.deltaUpdates = config.deltaUpdates;
+    Object.defineProperty(this, "deltaUpdates", {
+        "value": this.validateDeltaUpdates(config.deltaUpdates),
+        "writable": false
+    });
+    //this.maxQueuedMessages = config.maxQueuedMessages;
+    Object.defineProperty(this, "maxQueuedMessages", {
+        "value": this.validateMaxQueuedMessages(config.maxQueuedMessages),
+        "writable": false
+    });
+    //this.queuePolicy = config.queuePolicy;
+    Object.defineProperty(this, "queuePolicy", {
+        "value": this.validateQueuePolicy(config.queuePolicy),
+        "writable": false
+    });
+    //this.pointEncoding = config.pointEncoding;
+    Object.defineProperty(this, "pointEncoding", {
+        "value": this.validatePointEncoding(config.pointEncoding),
+        "writable": false
+    });
+    //this.simplifyGeometry = config.simplifyGeometry;
+    Object.defineProperty(this, "simplifyGeometry", {
+        "value": this.validateSimplifyGeometry(config.simplifyGeometry),
+        "writable": false
+    });
+    //this.warmStart = config.warmStart;
+    Object.defineProperty(this, "warmStart", {
+        "value": this.validateWarmStart(config.warmStart),
+        "writable": false
+    });
 
     this.copy = function() {
         return new FencingAgentProfile({
@@ -299,12 +696,19 @@ function FencingAgentProfile(config, lenient) {
             "range": this.range,
             "detectApproach": this.detectApproach,
             "interiorFocus": this.interiorFocus,
-            "dwellTime": this.dwellTime
+            "dwellTime": this.dwellTime,
+            "deltaUpdates": this.deltaUpdates,
+            "maxQueuedMessages": this.maxQueuedMessages,
+            "queuePolicy": this.queuePolicy,
+            "pointEncoding": this.pointEncoding,
+            "simplifyGeometry": this.simplifyGeometry,
+            "warmStart": this.warmStart
         });
     }
 }
 
-function FencingAgentDelegate(onStarted, fencesRefreshed, onError, onQuit) {
+//`projection` is one of the names in `projections`, and defaults to "all".
+function FencingAgentDelegate(onStarted, fencesRefreshed, onError, onQuit, projection) {
     //Validation
     var checkFunction = function(arg, argName) {
         if(!(typeof arg === "function" || typeof arg === "undefined")) {
@@ -315,7 +719,14 @@ function FencingAgentDelegate(onStarted, fencesRefreshed, onError, onQuit) {
     checkFunction(fencesRefreshed, "fencesRefreshed");
     checkFunction(onError, "onError");
     checkFunction(onQuit, "onQuit");
+    if(typeof projection === "undefined") {
+        projection = "all";
+    }
+    if(!projections.hasOwnProperty(projection)) {
+        throw new Error("`FencingAgentDelegate` was constructed with an unrecognized projection. (`" + projection + "`)");
+    }
 
+    this.projection = projection;
     this.onStarted = onStarted;
     this.onQuit = onQuit;
     this.fencesRefreshed = fencesRefreshed;
@@ -345,16 +756,28 @@ function FencingAgentDelegate(onStarted, fencesRefreshed, onError, onQuit) {
     }
 }
 
-function FencingAgent(agentProfile) {
+//`createdByHub` is only set by `FencingAgentHub.prototype.createAgents`, which creates the native agents itself.
+function FencingAgent(agentProfile, createdByHub) {
     //Public instance methods
     this.start = startImpl;
     this.addDelegate = addDelegateImpl;
     this.quit = quitImpl;
     this.purgeCache = purgeCacheImpl;
+    this.getQueueStats = getQueueStatsImpl;
+    this.getMetrics = getMetricsImpl;
+    this.queryContains = queryContainsImpl;
+    this.queryWithinRadius = queryWithinRadiusImpl;
+    this.nearestFences = nearestFencesImpl;
+    this.evaluateRequirements = evaluateRequirementsImpl;
 
     //Private members
     var profile = agentProfile.copy();
     var delegates = [];
+    //Native calls about this agent fail until its native agent exists, so they wait in `pendingCalls` until then.
+    var nativeAgentCreated = false;
+    var pendingCalls = [];
+    var deltaTracker = new StateDeltaTracker();
+    var geometryCache = new GeometryCache();
 
     //validation
     if(!(agentProfile instanceof FencingAgentProfile)) {
@@ -369,6 +792,7 @@ function FencingAgent(agentProfile) {
     };
 
     var simpleAgentCall = function(actionName) {
+        whenNativeAgentCreated(function() {
             cordova.exec(
                 function(response) {},
                 cordovaErrorHandler,
@@ -376,8 +800,10 @@ function FencingAgent(agentProfile) {
                 actions[actionName],
                 [profile.geodomain]
             );
+        });
     }
     var agentCallWithResult = function(actionName, callback) {
+        whenNativeAgentCreated(function() {
             cordova.exec(
                 function(response) {
                     callback(response.content);
@@ -387,44 +813,137 @@ function FencingAgent(agentProfile) {
                 actions[actionName],
                 [profile.geodomain]
             );
+        });
+    }
+
+    var agentQuery = function(actionName, latitude, longitude, limit, callback) {
+        if(typeof callback !== "function") {
+            throw new Error("`FencingAgent` spatial queries must be given a callback function.");
+        }
+        var queryArguments = [profile.geodomain, validateNumber(latitude, "FencingAgent spatial query"),
+            validateNumber(longitude, "FencingAgent spatial query"), limit];
+        whenNativeAgentCreated(function() {
+            cordova.exec(
+                function(response) {
+                    callback(response.content);
+                },
+                cordovaErrorHandler,
+                "FencingAgent",
+                actions[actionName],
+                queryArguments
+            );
+        });
     }
 
     //TODO: use entity types
     //TODO: agentStatus?
     var sendResponseToDelegates = function(response) {
+        var message = response.message;
+        if(message) {
+            var fences = geometryCache.fencesInContent(message.content);
+            if(response.coordinates) {
+                decodeCoordinates(response.coordinates, fences);
+            }
+            geometryCache.resolve(fences);
+        }
+        if(message && message.type === delegateMessageTypes.ON_FENCE_REFRESH && message.content.delta) {
+            var update = deltaTracker.apply(message.content.delta);
+            if(update === null) {
+                //Missed a delta somewhere; skip this one and wait for a full snapshot.
+                deltaTracker.reset();
+                simpleAgentCall("RESYNC");
+                return;
+            }
+            message.content = update;
+        }
+        if(message) {
+            geometryCache.retain(geometryCache.statesInContent(message.content));
+        }
         for(var i = 0; i < delegates.length; i++) {
             delegates[i].handleMessage(response);
         }
-        watchForNextAgentEvent();
     }
 
-    var watchForNextAgentEvent = function() {
-        console.log("MARK " + "watching for next event");
+    //The native side keeps this callback open, and always sends it an array of responses.
+    var subscribeToAgentEvents = function() {
+        logAtLevel("debug", function() {
+            return "FencingAgent subscribing to events for `" + profile.geodomain + "`";
+        });
         cordova.exec(
-                function(response) {
-                    sendResponseToDelegates(response);
+                function(responses) {
+                    for(var i = 0; i < responses.length; i++) {
+                        sendResponseToDelegates(responses[i]);
+                    }
                 },
                 function(error) {
                     sendResponseToDelegates(error);
                 },
                 "FencingAgent",
-                actions.WATCH_FOR_NEXT_EVENT,
+                actions.SUBSCRIBE,
                 [profile.geodomain]
         );
     }
 
+    //Fields added and calls made before the native agent existed are sent once it does, in order.
+    function onNativeAgentCreated() {
+        nativeAgentCreated = true;
+        sendFields();
+        var calls = pendingCalls;
+        pendingCalls = [];
+        for(var i = 0; i < calls.length; i++) {
+            calls[i]();
+        }
+    }
+
+    /*
+        Runs `call` now if the native agent exists, or once it does. If a hub fails to create the native
+        agent, calls made in the meantime are never sent; the hub's `createAgents` callback says why.
+    */
+    function whenNativeAgentCreated(call) {
+        if(nativeAgentCreated) {
+            call();
+        } else {
+            pendingCalls.push(call);
+        }
+    }
+
+    //Tells the native side which fields this agent's delegates use; the native side sends the union of them.
+    function sendFields() {
+        if(!nativeAgentCreated || delegates.length === 0) {
+            return;
+        }
+        var fieldLists = [];
+        for(var i = 0; i < delegates.length; i++) {
+            fieldLists.push(projections[delegates[i].projection]);
+        }
+        cordova.exec(
+            function(response) {},
+            cordovaErrorHandler,
+            "FencingAgent",
+            actions.SET_FIELDS,
+            [profile.geodomain, fieldLists]
+        );
+    }
+
     //Initialization
-    //TODO: Is this a race condition with the first method call on the newly created FencingAgent?
-    cordova.exec(
-        function(response) {
-            console.log("MARK init returned with success");
-            watchForNextAgentEvent();
-        },
-        cordovaErrorHandler,
-        "FencingAgent",
-        actions.CREATE_AGENT,
-        [profile.geodomain, profile.range, profile.zoomLevel, profile.detectApproach, profile.interiorFocus, profile.dwellTime]
-    );
+    hubHandlers[profile.geodomain] = sendResponseToDelegates;
+    if(createdByHub === true) {
+        agentCreatedHandlers[profile.geodomain] = onNativeAgentCreated;
+    } else {
+        cordova.exec(
+            function(response) {
+                //With a hub, this agent's responses already come through the hub's callback.
+                if(!hubSubscribed) {
+                    subscribeToAgentEvents();
+                }
+                onNativeAgentCreated();
+            },
+            cordovaErrorHandler,
+            "FencingAgent",
+            actions.CREATE_AGENT,
+            createAgentArguments(profile)
+        );
+    }
 
 
     //Implementations of public instance methods
@@ -437,20 +956,302 @@ function FencingAgent(agentProfile) {
     }
 
     function purgeCacheImpl() {
+        requirementCache = {};
         simpleAgentCall("PURGE_CACHE");
     }
 
+    //Calls `callback` with the depth of the native message queue, and how many messages it has dropped and coalesced.
+    function getQueueStatsImpl(callback) {
+        if(typeof callback !== "function") {
+            throw new Error("`FencingAgent.prototype.getQueueStats` must be given a callback function.");
+        }
+        agentCallWithResult("QUEUE_STATS", callback);
+    }
+
+    //Calls `callback` with a snapshot of the native side's event counts, queue depths, serialization costs, and latencies.
+    function getMetricsImpl(callback) {
+        if(typeof callback !== "function") {
+            throw new Error("`FencingAgent.prototype.getMetrics` must be given a callback function.");
+        }
+        agentCallWithResult("GET_METRICS", callback);
+    }
+
+    /*
+        The spatial queries are answered natively from the agent's latest fences, and call `callback`
+        with an array of `{key, status, anchorpoint, distance}` objects, where `distance` is in meters
+        and is 0 for fences that contain the point. Within a state, `anchorpoint` tells fences apart.
+    */
+    function queryContainsImpl(latitude, longitude, callback) {
+        agentQuery("QUERY_CONTAINS", latitude, longitude, null, callback);
+    }
+
+    function queryWithinRadiusImpl(latitude, longitude, meters, callback) {
+        agentQuery("QUERY_WITHIN_RADIUS", latitude, longitude, validateNumber(meters, "FencingAgent.queryWithinRadius"), callback);
+    }
+
+    function nearestFencesImpl(latitude, longitude, count, callback) {
+        agentQuery("NEAREST_FENCES", latitude, longitude, validateNumber(count, "FencingAgent.nearestFences"), callback);
+    }
+
+    //See `evaluateRequirements`; `callback` is given this agent's `{success: true, results}` or `{success: false, message}`.
+    function evaluateRequirementsImpl(readings, callback) {
+        var readingsByGeodomain = {};
+        readingsByGeodomain[profile.geodomain] = readings;
+        validateReadings(readingsByGeodomain, callback, "FencingAgent.prototype.evaluateRequirements");
+        whenNativeAgentCreated(function() {
+            evaluateRequirements(readingsByGeodomain, function(content) {
+                callback(content[profile.geodomain]);
+            }, "FencingAgent.prototype.evaluateRequirements");
+        });
+    }
+
     function addDelegateImpl(delegate) {
-        console.log("MARK adding delegate");
         //Validation
         if(!(delegate instanceof FencingAgentDelegate)) {
             throw new Error("A FencingAgent recieved a delegate object that wasn't really a `FencingAgentDelegate`.");
         }
 
         delegates.push(delegate);
+        sendFields();
+    }
+}
+
+//The arguments of the native `createAgent` action, which `createAgents` takes one of per agent.
+function createAgentArguments(profile) {
+    return [profile.geodomain, profile.range, profile.zoomLevel, profile.detectApproach, profile.interiorFocus, profile.dwellTime,
+        profile.deltaUpdates, profile.maxQueuedMessages, profile.queuePolicy,
+        profile.pointEncoding, profile.simplifyGeometry, profile.warmStart];
+}
+
+/*
+    Keeps one callback open for every FencingAgent instead of one per agent, and creates, starts, quits,
+    or purges the caches of several agents in a single call. Only one hub is needed; creating another one
+    takes over from the last.
+
+    The bulk methods take an array of geodomains, and call `callback`, if given, with an object that maps
+    each geodomain to `{success: true}` or `{success: false, message: "..."}`.
+
+    `createAgents` takes an array of FencingAgentProfiles instead, and returns their FencingAgents right
+    away, so that delegates can be added before anything arrives. The native agents are built in parallel,
+    and started too if `start` is `true`; wait for `callback` before calling the agents' own methods.
+*/
+function FencingAgentHub() {
+    //Public instance methods
+    this.createAgents = createAgentsImpl;
+    this.start = startAllImpl;
+    this.quit = quitAllImpl;
+    this.purgeCache = purgeCacheAllImpl;
+    this.evaluateRequirements = evaluateRequirementsImpl;
+
+    //Util functions
+    var cordovaErrorHandler = function(cordovaError) {
+        throw cordovaError;
+    };
+
+    var bulkAgentCall = function(actionName, geodomains, callback) {
+        if(!Array.isArray(geodomains)) {
+            throw new Error("FencingAgentHub must be given an array of geodomains.");
+        }
+        for(var i = 0; i < geodomains.length; i++) {
+            if(typeof geodomains[i] !== "string") {
+                throw new Error(
+                        "FencingAgentHub recieved a geodomain that wasn't a string." +
+                        "\nRecieved value was `" + geodomains[i] + "`"
+                );
+            }
+        }
+        cordova.exec(
+            function(response) {
+                if(typeof callback === "function") {
+                    callback(response.content);
+                }
+            },
+            cordovaErrorHandler,
+            "FencingAgent",
+            actions[actionName],
+            [geodomains]
+        );
+    };
+
+    //Initialization
+    hubSubscribed = true;
+    cordova.exec(
+        function(responses) {
+            for(var i = 0; i < responses.length; i++) {
+                var handler = hubHandlers[responses[i].geodomain];
+                if(typeof handler === "function") {
+                    handler(responses[i]);
+                }
+            }
+        },
+        cordovaErrorHandler,
+        "FencingAgent",
+        actions.SUBSCRIBE_HUB,
+        []
+    );
+
+    //Implementations of public instance methods
+    function createAgentsImpl(profiles, start, callback) {
+        if(!Array.isArray(profiles)) {
+            throw new Error("FencingAgentHub.prototype.createAgents must be given an array of FencingAgentProfiles.");
+        }
+        var geodomains = {};
+        for(var i = 0; i < profiles.length; i++) {
+            if(!(profiles[i] instanceof FencingAgentProfile)) {
+                throw new Error("FencingAgentHub.prototype.createAgents recieved a profile that wasn't really a `FencingAgentProfile`.");
+            }
+            if(geodomains.hasOwnProperty(profiles[i].geodomain)) {
+                throw new Error("FencingAgentHub.prototype.createAgents recieved geodomain `" + profiles[i].geodomain + "` more than once.");
+            }
+            //Checked before building any agent, since building one takes over the geodomain's handler.
+            if(hubHandlers.hasOwnProperty(profiles[i].geodomain)) {
+                throw new Error("FencingAgentHub.prototype.createAgents recieved geodomain `" + profiles[i].geodomain +
+                    "`, which already has an agent.");
+            }
+            geodomains[profiles[i].geodomain] = true;
+        }
+
+        var agents = [];
+        var agentArguments = [];
+        for(var i = 0; i < profiles.length; i++) {
+            agents.push(new FencingAgent(profiles[i], true));
+            agentArguments.push(createAgentArguments(profiles[i]));
+        }
+        cordova.exec(
+            function(response) {
+                var results = response.content;
+                for(var geodomain in results) {
+                    if(results.hasOwnProperty(geodomain)) {
+                        var onCreated = agentCreatedHandlers[geodomain];
+                        delete agentCreatedHandlers[geodomain];
+                        if(!results[geodomain].success) {
+                            delete hubHandlers[geodomain];
+                        } else if(typeof onCreated === "function") {
+                            onCreated();
+                        }
+                    }
+                }
+                if(typeof callback === "function") {
+                    callback(results);
+                }
+            },
+            cordovaErrorHandler,
+            "FencingAgent",
+            actions.CREATE_AGENTS,
+            [agentArguments, start === true]
+        );
+        return agents;
+    }
+
+    function startAllImpl(geodomains, callback) {
+        bulkAgentCall("START_ALL", geodomains, callback);
+    }
+
+    function quitAllImpl(geodomains, callback) {
+        bulkAgentCall("QUIT_ALL", geodomains, callback);
+    }
+
+    function purgeCacheAllImpl(geodomains, callback) {
+        requirementCache = {};
+        bulkAgentCall("PURGE_CACHE_ALL", geodomains, callback);
+    }
+
+    function evaluateRequirementsImpl(readingsByGeodomain, callback) {
+        evaluateRequirements(readingsByGeodomain, callback, "FencingAgentHub.prototype.evaluateRequirements");
     }
 }
 
+/*
+    Checks readings against the requirements of agents' geodomains natively, in one call for any number
+    of readings and geodomains. `readingsByGeodomain` maps each geodomain to an array of readings like
+    `{requirement: 0, value: 12.5, unit: "FEET"}`, where `requirement` is the index into the geodomain's
+    requirements, and `unit` is optional and defaults to the requirement's own.
+
+    `callback` is given an object mapping each geodomain to `{success: true, results: [...]}`, with one
+    `{requirement, baseType, result}` or `{requirement, error}` per reading in order, or to
+    `{success: false, message}` if the geodomain has no agent or its requirements haven't been fetched yet.
+*/
+function evaluateRequirements(readingsByGeodomain, callback, caller) {
+    validateReadings(readingsByGeodomain, callback, caller);
+    cordova.exec(
+        function(response) {
+            callback(response.content);
+        },
+        function(cordovaError) {
+            throw cordovaError;
+        },
+        "FencingAgent",
+        actions.EVALUATE_REQUIREMENTS,
+        [readingsByGeodomain]
+    );
+}
+
+//Throws if `evaluateRequirements` would be given anything it can't send.
+function validateReadings(readingsByGeodomain, callback, caller) {
+    validateObject(readingsByGeodomain, caller);
+    if(typeof callback !== "function") {
+        throw new Error("`" + caller + "` must be given a callback function.");
+    }
+    var geodomains = Object.getOwnPropertyNames(readingsByGeodomain);
+    for(var i = 0; i < geodomains.length; i++) {
+        var readings = readingsByGeodomain[geodomains[i]];
+        if(!Array.isArray(readings)) {
+            throw new Error("`" + caller + "` recieved readings for `" + geodomains[i] + "` that weren't an array.");
+        }
+        for(var j = 0; j < readings.length; j++) {
+            validateObject(readings[j], caller);
+            validateNumber(readings[j].requirement, caller);
+        }
+    }
+}
+
+/*
+    Switches for debugging the plugin in the field. Both are off until the app turns them on.
+
+    `setLogLevel` takes "off", "error", or "debug". Native debug logging follows the app's Cordova
+    `loglevel` preference instead.
+
+    `startTrace` makes the native side keep the last `capacity` (256 by default) things that happened:
+    actions from Javascript, and messages from agents as they arrive, get coalesced or dropped, and are
+    delivered. `dumpTrace` calls `callback` with them, oldest first.
+*/
+var FencingAgentDiagnostics = {
+    "setLogLevel": function(level) {
+        if(logLevels.indexOf(level) < 0) {
+            throw new Error(
+                    "FencingAgentDiagnostics.setLogLevel recieved an unrecognized log level." +
+                    "\nRecieved value was `" + level + "`"
+            );
+        }
+        logLevel = level;
+    },
+    "startTrace": function(capacity) {
+        cordova.exec(function(response) {}, traceErrorHandler, "FencingAgent", actions.START_TRACE,
+                [typeof capacity === "undefined" ? null : validateNumber(capacity, "FencingAgentDiagnostics.startTrace")]);
+    },
+    "stopTrace": function() {
+        cordova.exec(function(response) {}, traceErrorHandler, "FencingAgent", actions.STOP_TRACE, []);
+    },
+    "dumpTrace": function(callback) {
+        if(typeof callback !== "function") {
+            throw new Error("`FencingAgentDiagnostics.dumpTrace` must be given a callback function.");
+        }
+        cordova.exec(
+            function(response) {
+                callback(response.content);
+            },
+            traceErrorHandler,
+            "FencingAgent",
+            actions.DUMP_TRACE,
+            []
+        );
+    }
+};
+
+var traceErrorHandler = function(cordovaError) {
+    logAtLevel("error", cordovaError);
+};
+
 //TODO: add geodomain
 function FencingAgentState(stateJSON) {
     validateObject(stateJSON);
@@ -468,7 +1269,6 @@ function FencingAgentState(stateJSON) {
     }
     for(var i = 0; i < stateJSON.fences.length; i++) {
         (function(i) {
-            console.log("JSMARK " + JSON.stringify(stateJSON.fences[i]));
             this.fences.push(new SmartFence(stateJSON.fences[i]));
         }).bind(this)(i);
     }
@@ -499,8 +1299,10 @@ function Geodomain(geodomainJSON) {
 
     //init
     //this.requirements
-    console.log("JSMARK4" +  JSON.stringify(geodomainJSON.geodomain.requirements));
-    this.requirements = geodomainJSON.geodomain.requirements.map(requirementFromJSON);
+    //Left `undefined` when none of the agent's delegates asked for requirements.
+    if(typeof geodomainJSON.geodomain.requirements !== "undefined") {
+        this.requirements = cachedRequirementsFromJSON(geodomainJSON.geodomain);
+    }
 
     //this.status
     if(!(geodomainStatuses.indexOf(geodomainJSON.status.status) > -1)) {
@@ -578,16 +1380,50 @@ function SmartFence(fenceJSON) {
     this.anchorpoint = validatePoint(fenceJSON.fence.anchorpoint);
 
     //this.points
-    if(!Array.isArray(fenceJSON.fence.points)) {
-        throw new Error(
-                "SmartFence constructor recieved a list that wasn't an array where it expected to find its point list." + 
-                "\nRecieved value was `" + fenceJSON.fence.points + "`"
-        );
-    }
-    for(var i = 0; i < fenceJSON.fence.points.length; i++) {
-        (function(i) {
-            this.points.push(validatePoint(fenceJSON.fence.points[i]));
-        }).bind(this)(i);
+    if(fenceJSON.fence.coordinates instanceof Float64Array) {
+        //this.coordinates holds the same points as this.points, as interleaved longitudes and latitudes.
+        var coordinates = fenceJSON.fence.coordinates;
+        if(coordinates.length % 2 !== 0) {
+            throw new Error("SmartFence constructor recieved coordinates with an odd number of values.");
+        }
+        for(var i = 0; i < coordinates.length; i += 2) {
+            if(!(Math.abs(coordinates[i]) <= 180 && Math.abs(coordinates[i + 1]) <= 90)) {
+                throw new Error(
+                        "SmartFence constructor recieved a point outside of the range [-180,180], [-90,90]." +
+                        "\nRecieved value was `" + coordinates[i] + "," + coordinates[i + 1] + "`"
+                );
+            }
+        }
+        this.coordinates = coordinates;
+        //The nested arrays are only built if someone asks for them.
+        var points = null;
+        Object.defineProperty(this, "points", {
+            "enumerable": true,
+            "get": function() {
+                if(points === null) {
+                    points = [];
+                    for(var i = 0; i < coordinates.length; i += 2) {
+                        points.push([coordinates[i], coordinates[i + 1]]);
+                    }
+                }
+                return points;
+            }
+        });
+    } else if(typeof fenceJSON.fence.points === "undefined") {
+        //None of the agent's delegates asked for geometry.
+        this.points = undefined;
+    } else {
+        if(!Array.isArray(fenceJSON.fence.points)) {
+            throw new Error(
+                    "SmartFence constructor recieved a list that wasn't an array where it expected to find its point list." + 
+                    "\nRecieved value was `" + fenceJSON.fence.points + "`"
+            );
+        }
+        for(var i = 0; i < fenceJSON.fence.points.length; i++) {
+            (function(i) {
+                this.points.push(validatePoint(fenceJSON.fence.points[i]));
+            }).bind(this)(i);
+        }
     }
 
     //this.ttl
@@ -616,12 +1452,21 @@ function SmartFence(fenceJSON) {
         );
     }
     this.status = fenceJSON.meta.status;
+
+    //this.approachDetails
+    //Only there when the agent detects approaches and a delegate asked for them.
+    if(typeof fenceJSON.meta.approachDetails !== "undefined") {
+        validateObject(fenceJSON.meta.approachDetails, "SmartFence constructor");
+        this.approachDetails = fenceJSON.meta.approachDetails;
+    }
 }
 
 module.exports = {
     "FencingAgentProfile": FencingAgentProfile,
     "FencingAgentDelegate": FencingAgentDelegate,
     "FencingAgent": FencingAgent,
+    "FencingAgentHub": FencingAgentHub,
+    "FencingAgentDiagnostics": FencingAgentDiagnostics,
     "SmartFence": SmartFence,
     "Geodomain": Geodomain,
     "Requirement": Requirement,